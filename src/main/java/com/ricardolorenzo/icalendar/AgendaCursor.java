@@ -0,0 +1,278 @@
+/*
+ * AgendaCursor class
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ *
+ * Author: Ricardo Lorenzo <unshakablespirit@gmail.com>
+ */
+package com.ricardolorenzo.icalendar;
+
+import java.util.List;
+
+/**
+ * Pages through the occurrences of the events, todos and journals of a calendar in chronological
+ * order, without an end.
+ *
+ * Every component has a lazy <code>OccurrenceIterator</code>, and a heap of the components ordered
+ * by their next occurrence merges them, so a page of <code>n</code> occurrences costs
+ * <code>O(n log c)</code> for <code>c</code> components. A component enters the heap keyed by the
+ * start of its first occurrence, and its iterator is only created when it reaches the top, so
+ * components that start after the last page are never expanded. Occurrences with the same start
+ * are ordered events first, then todos and journals, and then by UID.
+ *
+ * A cursor can be kept between pages, or dropped and rebuilt later from its token with
+ * <code>VCalendar.getAgenda(String)</code>. A cursor is not synchronized and does not see the
+ * components added to the calendar after it was created.
+ *
+ * @author Ricardo_Lorenzo
+ *
+ */
+public class AgendaCursor {
+    private static final char SEPARATOR = ':';
+
+    private final VAction[] components;
+    private final OccurrenceIterator[] iterators;
+    private final int[] ranks;
+    private final long[] starts;
+    private final int[] heap;
+    private final long from;
+    private final int fromRank;
+    private final String fromUid;
+    private int size;
+    private long lastStart;
+    private int lastRank;
+    private String lastUid;
+
+    /**
+     * Creates a cursor over the occurrences ending after <code>from</code>.
+     */
+    AgendaCursor(final List<? extends VAction> components, final long from) {
+        this(components, from, -1, null);
+    }
+
+    /**
+     * Creates a cursor over the occurrences starting after <code>after</code>.
+     */
+    static AgendaCursor getStartingAfter(final List<? extends VAction> components, final long after) {
+        return new AgendaCursor(components, after, Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * Creates a cursor that resumes after the position of a token, which must be valid.
+     */
+    AgendaCursor(final List<? extends VAction> components, final String token) throws VCalendarException {
+        this(components, getStart(token), getRank(token), getUid(token));
+    }
+
+    /**
+     * When <code>rank</code> is not negative, the cursor resumes after the occurrence starting at
+     * <code>from</code> of the component with that rank and UID, skipping everything before it.
+     */
+    private AgendaCursor(final List<? extends VAction> components, final long from, final int rank,
+            final String uid) {
+        this.components = components.toArray(new VAction[components.size()]);
+        this.iterators = new OccurrenceIterator[this.components.length];
+        this.ranks = new int[this.components.length];
+        this.starts = new long[this.components.length];
+        this.heap = new int[this.components.length];
+        this.from = from;
+        this.fromRank = rank;
+        this.fromUid = uid;
+        this.lastStart = from;
+        this.lastRank = rank;
+        this.lastUid = uid;
+        for (int i = 0; i < this.components.length; i++) {
+            this.ranks[i] = getRank(this.components[i]);
+            this.starts[i] = this.components[i].getSpanStart();
+            this.heap[i] = i;
+        }
+        this.size = this.components.length;
+        for (int i = this.size / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    /**
+     * Creates the iterator of the component at the top of the heap and keys it by its next
+     * occurrence, or drops it if it has none.
+     */
+    private void expand() {
+        final int i = this.heap[0];
+        final OccurrenceIterator iterator = new OccurrenceIterator(this.components[i], this.from, Long.MAX_VALUE);
+        if (this.fromRank >= 0) {
+            while (iterator.hasNext() && !isAfterFrom(i, iterator.peekStart())) {
+                iterator.skip();
+            }
+        }
+        this.iterators[i] = iterator;
+        if (iterator.hasNext()) {
+            this.starts[i] = iterator.peekStart();
+        } else {
+            this.heap[0] = this.heap[--this.size];
+        }
+        siftDown(0);
+    }
+
+    private static int getRank(final VAction component) {
+        if (component instanceof VEvent) {
+            return 0;
+        } else if (component instanceof VTodo) {
+            return 1;
+        }
+        return 2;
+    }
+
+    private static int getSeparator(final String token, final int index) throws VCalendarException {
+        final int separator = token == null ? -1 : token.indexOf(SEPARATOR, index);
+        if (separator < 0) {
+            throw new VCalendarException("invalid agenda token");
+        }
+        return separator;
+    }
+
+    /**
+     * Returns the start of the position of a token.
+     */
+    static long getStart(final String token) throws VCalendarException {
+        try {
+            return Long.parseLong(token.substring(0, getSeparator(token, 0)));
+        } catch (final NumberFormatException e) {
+            throw new VCalendarException("invalid agenda token");
+        }
+    }
+
+    private static int getRank(final String token) throws VCalendarException {
+        final int first = getSeparator(token, 0);
+        try {
+            return Integer.parseInt(token.substring(first + 1, getSeparator(token, first + 1)));
+        } catch (final NumberFormatException e) {
+            throw new VCalendarException("invalid agenda token");
+        }
+    }
+
+    private static String getUid(final String token) throws VCalendarException {
+        return token.substring(getSeparator(token, getSeparator(token, 0) + 1) + 1);
+    }
+
+    /**
+     * Returns the position after the last occurrence returned, or the starting position if there
+     * was none, to resume with <code>VCalendar.getAgenda(String)</code>.
+     *
+     * @return
+     */
+    public String getToken() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(this.lastStart);
+        sb.append(SEPARATOR);
+        sb.append(this.lastRank);
+        sb.append(SEPARATOR);
+        if (this.lastUid != null) {
+            sb.append(this.lastUid);
+        }
+        return sb.toString();
+    }
+
+    public boolean hasNext() {
+        while (this.size > 0 && this.iterators[this.heap[0]] == null) {
+            expand();
+        }
+        return this.size > 0;
+    }
+
+    /**
+     * Returns the next <code>count</code> occurrences, or fewer if the calendar has no more.
+     *
+     * @param count
+     * @return
+     */
+    public CalendarOccurrences next(final int count) {
+        final CalendarOccurrences page = new CalendarOccurrences(this.components, this.lastStart, Long.MAX_VALUE,
+                null);
+        for (int n = 0; n < count && hasNext(); n++) {
+            final int i = this.heap[0];
+            final OccurrenceIterator iterator = this.iterators[i];
+            page.add(iterator.peekStart(), iterator.peekEnd(), i, iterator.peekOverride());
+            this.lastStart = iterator.peekStart();
+            this.lastRank = this.ranks[i];
+            this.lastUid = this.components[i].getUid();
+            iterator.skip();
+            if (iterator.hasNext()) {
+                this.starts[i] = iterator.peekStart();
+                siftDown(0);
+            } else {
+                this.heap[0] = this.heap[--this.size];
+                siftDown(0);
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Returns true if an occurrence of component <code>i</code> starting at <code>start</code>
+     * comes after the position the cursor resumes from.
+     */
+    private boolean isAfterFrom(final int i, final long start) {
+        if (start != this.from) {
+            return start > this.from;
+        }
+        if (this.ranks[i] != this.fromRank) {
+            return this.ranks[i] > this.fromRank;
+        }
+        return this.components[i].getUid() != null && this.fromUid != null
+                && this.components[i].getUid().compareTo(this.fromUid) > 0;
+    }
+
+    /**
+     * Orders by start and, on the same start, components not expanded yet first, as their first
+     * occurrence may come before the one of the other component.
+     */
+    private boolean isBefore(final int i, final int j) {
+        if (this.starts[i] != this.starts[j]) {
+            return this.starts[i] < this.starts[j];
+        }
+        if ((this.iterators[i] == null) != (this.iterators[j] == null)) {
+            return this.iterators[i] == null;
+        }
+        if (this.ranks[i] != this.ranks[j]) {
+            return this.ranks[i] < this.ranks[j];
+        }
+        final String a = this.components[i].getUid();
+        final String b = this.components[j].getUid();
+        if (a == null || b == null) {
+            return b != null;
+        }
+        return a.compareTo(b) < 0;
+    }
+
+    private void siftDown(int parent) {
+        while (true) {
+            int child = 2 * parent + 1;
+            if (child >= this.size) {
+                return;
+            }
+            if (child + 1 < this.size && isBefore(this.heap[child + 1], this.heap[child])) {
+                child++;
+            }
+            if (!isBefore(this.heap[child], this.heap[parent])) {
+                return;
+            }
+            swap(child, parent);
+            parent = child;
+        }
+    }
+
+    private void swap(final int i, final int j) {
+        final int value = this.heap[i];
+        this.heap[i] = this.heap[j];
+        this.heap[j] = value;
+    }
+}
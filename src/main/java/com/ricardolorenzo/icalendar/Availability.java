@@ -0,0 +1,225 @@
+/*
+ * Availability class
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ *
+ * Author: Ricardo Lorenzo <unshakablespirit@gmail.com>
+ */
+package com.ricardolorenzo.icalendar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Combined availability of many calendars in one window.
+ *
+ * The busy time of every calendar is computed on a fork-join pool, and the intervals of all the
+ * calendars are coalesced into combined busy intervals that do not overlap. Every combined
+ * interval keeps the indexes of the calendars busy during it, and the gaps between the combined
+ * intervals are the time when all the calendars are free.
+ *
+ * @author Ricardo_Lorenzo
+ *
+ */
+public class Availability {
+    private final BusyIntervals[] calendars;
+    private final BusyIntervals busy;
+    private final int[] offsets;
+    private final int[] members;
+
+    private Availability(final BusyIntervals[] calendars, final BusyIntervals busy, final int[] offsets,
+            final int[] members) {
+        this.calendars = calendars;
+        this.busy = busy;
+        this.offsets = offsets;
+        this.members = members;
+    }
+
+    /**
+     * Computes the availability of <code>calendars</code> in a window on the common fork-join
+     * pool.
+     *
+     * @param calendars
+     * @param window
+     * @return
+     */
+    public static Availability compute(final List<VCalendar> calendars, final Period window) {
+        return compute(calendars, window, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Computes the availability of <code>calendars</code> in a window on <code>pool</code>.
+     *
+     * @param calendars
+     * @param window
+     * @param pool
+     * @return
+     */
+    public static Availability compute(final List<VCalendar> calendars, final Period window,
+            final ForkJoinPool pool) {
+        final VCalendar[] values = calendars.toArray(new VCalendar[calendars.size()]);
+        final BusyIntervals[] intervals = new BusyIntervals[values.length];
+        pool.invoke(new BusyTask(values, window, intervals, 0, values.length));
+
+        int size = 0;
+        for (BusyIntervals calendar : intervals) {
+            size += calendar.size();
+        }
+        final long[] starts = new long[size];
+        final long[] ends = new long[size];
+        final int[] types = new int[size];
+        size = 0;
+        for (BusyIntervals calendar : intervals) {
+            for (int i = 0; i < calendar.size(); i++) {
+                starts[size] = calendar.getStart(i);
+                ends[size] = calendar.getEnd(i);
+                types[size++] = BusyIntervals.getType(calendar.getType(i));
+            }
+        }
+        final BusyIntervals busy = BusyIntervals.coalesce(window.getStart().getTimeInMillis(), window.getEnd()
+                .getTimeInMillis(), starts, ends, types, size);
+
+        final int[] counts = new int[busy.size()];
+        attribute(intervals, busy, counts, null);
+        final int[] offsets = new int[busy.size() + 1];
+        for (int b = 0; b < busy.size(); b++) {
+            offsets[b + 1] = offsets[b] + counts[b];
+        }
+        final int[] members = new int[offsets[busy.size()]];
+        attribute(intervals, busy, Arrays.copyOf(offsets, busy.size()), members);
+        return new Availability(intervals, busy, offsets, members);
+    }
+
+    /**
+     * Walks the combined intervals overlapped by the intervals of every calendar, in the order of
+     * the calendars. Without <code>members</code> it counts the calendars of each combined
+     * interval in <code>positions</code>; otherwise it stores them at <code>positions</code>.
+     */
+    private static void attribute(final BusyIntervals[] intervals, final BusyIntervals busy, final int[] positions,
+            final int[] members) {
+        for (int c = 0; c < intervals.length; c++) {
+            int last = -1;
+            for (int i = 0; i < intervals[c].size(); i++) {
+                int b = Math.max(last + 1, busy.getFirstIndex(intervals[c].getStart(i)));
+                for (; b < busy.size() && busy.getStart(b) < intervals[c].getEnd(i); b++) {
+                    if (members == null) {
+                        positions[b]++;
+                    } else {
+                        members[positions[b]++] = c;
+                    }
+                    last = b;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the combined busy intervals of all the calendars. Where several calendars are busy,
+     * the strongest free/busy type wins.
+     *
+     * @return
+     */
+    public BusyIntervals getBusy() {
+        return busy;
+    }
+
+    /**
+     * Returns the busy intervals of the calendar at <code>index</code>.
+     *
+     * @param index
+     * @return
+     */
+    public BusyIntervals getBusy(final int index) {
+        return calendars[index];
+    }
+
+    /**
+     * Returns the indexes of the calendars busy during the combined busy interval at
+     * <code>index</code>, in ascending order.
+     *
+     * @param index
+     * @return
+     */
+    public int[] getBusyCalendars(final int index) {
+        if (index < 0 || index >= busy.size()) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        return Arrays.copyOfRange(members, offsets[index], offsets[index + 1]);
+    }
+
+    public int getCalendarCount() {
+        return calendars.length;
+    }
+
+    /**
+     * Returns the periods of the window when all the calendars are free.
+     *
+     * @return
+     */
+    public List<Period> getFreePeriods() {
+        final List<Period> periods = new ArrayList<Period>();
+        long start = busy.getWindowStart();
+        for (int i = 0; i <= busy.size(); i++) {
+            final long end = i < busy.size() ? busy.getStart(i) : busy.getWindowEnd();
+            if (start < end) {
+                Calendar periodStart = Calendar.getInstance();
+                periodStart.setTimeInMillis(start);
+                Calendar periodEnd = Calendar.getInstance();
+                periodEnd.setTimeInMillis(end);
+                periods.add(new Period(periodStart, periodEnd));
+            }
+            if (i < busy.size()) {
+                start = busy.getEnd(i);
+            }
+        }
+        return periods;
+    }
+
+    /**
+     * Computes the busy intervals of a range of calendars, splitting it in halves.
+     */
+    private static final class BusyTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final VCalendar[] calendars;
+        private final Period window;
+        private final BusyIntervals[] intervals;
+        private final int from;
+        private final int to;
+
+        BusyTask(final VCalendar[] calendars, final Period window, final BusyIntervals[] intervals, final int from,
+                final int to) {
+            this.calendars = calendars;
+            this.window = window;
+            this.intervals = intervals;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                for (int i = from; i < to; i++) {
+                    intervals[i] = calendars[i].getBusyIntervals(window);
+                }
+                return;
+            }
+            final int middle = (from + to) >>> 1;
+            invokeAll(new BusyTask(calendars, window, intervals, from, middle), new BusyTask(calendars, window,
+                    intervals, middle, to));
+        }
+    }
+}
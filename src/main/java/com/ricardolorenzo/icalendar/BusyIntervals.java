@@ -0,0 +1,267 @@
+/*
+ * BusyIntervals class
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ *
+ * Author: Ricardo Lorenzo <unshakablespirit@gmail.com>
+ */
+package com.ricardolorenzo.icalendar;
+
+import java.util.Arrays;
+import java.util.Calendar;
+
+/**
+ * Coalesced busy time of a window, stored as parallel primitive arrays of start and end
+ * milliseconds and free/busy types, sorted by start and not overlapping each other.
+ *
+ * The intervals come from a sweep over the sorted boundaries of the busy occurrences, keeping a
+ * count of the open occurrences of each type. Where occurrences of several types overlap, the
+ * strongest type wins, BUSY-UNAVAILABLE over BUSY over BUSY-TENTATIVE, and touching or overlapping
+ * occurrences of the same type are merged into one interval, so building them costs
+ * <code>O(n log n)</code> for <code>n</code> occurrences.
+ *
+ * @author Ricardo_Lorenzo
+ *
+ */
+public class BusyIntervals {
+    /**
+     * Free/busy types from the strongest to the weakest, indexed by the type of an interval.
+     */
+    static final String[] TYPES = { VFreeBusy.BUSY_UNAVAILABLE, VFreeBusy.BUSY, VFreeBusy.BUSY_TENTATIVE };
+
+    private final long windowStart;
+    private final long windowEnd;
+    private final long[] starts;
+    private final long[] ends;
+    private final int[] types;
+    private final int size;
+
+    private BusyIntervals(final long windowStart, final long windowEnd, final long[] starts, final long[] ends,
+            final int[] types, final int size) {
+        this.windowStart = windowStart;
+        this.windowEnd = windowEnd;
+        this.starts = starts;
+        this.ends = ends;
+        this.types = types;
+        this.size = size;
+    }
+
+    /**
+     * Returns the busy time of the occurrences, clipped to their window. Transparent and cancelled
+     * occurrences are free; tentative ones are BUSY-TENTATIVE and the rest are BUSY.
+     */
+    static BusyIntervals build(final CalendarOccurrences occurrences) {
+        final long[] starts = new long[occurrences.size()];
+        final long[] ends = new long[occurrences.size()];
+        final int[] types = new int[occurrences.size()];
+        int count = 0;
+        for (int i = 0; i < occurrences.size(); i++) {
+            final long start = occurrences.getStart(i);
+            final int type = getType(occurrences.getInstance(i));
+            if (type >= 0) {
+                starts[count] = start;
+                ends[count] = occurrences.getEnd(i);
+                types[count++] = type;
+            }
+        }
+        return coalesce(occurrences.getWindowStart(), occurrences.getWindowEnd(), starts, ends, types, count);
+    }
+
+    /**
+     * Returns the index in <code>TYPES</code> of the busy time of a component, or -1 if it does
+     * not block time.
+     */
+    static int getType(final VAction component) {
+        if (component instanceof VEvent && ((VEvent) component).isTransparent()) {
+            return -1;
+        }
+        final String status = component.getStatus();
+        if ("CANCELLED".equalsIgnoreCase(status)) {
+            return -1;
+        } else if ("TENTATIVE".equalsIgnoreCase(status)) {
+            return 2;
+        }
+        return 1;
+    }
+
+    /**
+     * Returns the index in <code>TYPES</code> of a free/busy type, or -1 if it is not busy.
+     */
+    static int getType(final String type) {
+        for (int i = 0; i < TYPES.length; i++) {
+            if (TYPES[i].equalsIgnoreCase(type)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Coalesces the first <code>size</code> intervals, in any order, clipped to the window
+     * between <code>windowStart</code> and <code>windowEnd</code>. Intervals without length are
+     * dropped.
+     */
+    static BusyIntervals coalesce(final long windowStart, final long windowEnd, final long[] starts,
+            final long[] ends, final int[] types, final int size) {
+        final int[] counts = new int[TYPES.length];
+        for (int i = 0; i < size; i++) {
+            counts[types[i]]++;
+        }
+        final long[][] typeStarts = new long[TYPES.length][];
+        final long[][] typeEnds = new long[TYPES.length][];
+        for (int t = 0; t < TYPES.length; t++) {
+            typeStarts[t] = new long[counts[t]];
+            typeEnds[t] = new long[counts[t]];
+            counts[t] = 0;
+        }
+        for (int i = 0; i < size; i++) {
+            final long start = Math.max(starts[i], windowStart);
+            final long end = Math.min(ends[i], windowEnd);
+            if (start < end) {
+                final int t = types[i];
+                typeStarts[t][counts[t]] = start;
+                typeEnds[t][counts[t]++] = end;
+            }
+        }
+        for (int t = 0; t < TYPES.length; t++) {
+            typeStarts[t] = Arrays.copyOf(typeStarts[t], counts[t]);
+            typeEnds[t] = Arrays.copyOf(typeEnds[t], counts[t]);
+            Arrays.sort(typeStarts[t]);
+            Arrays.sort(typeEnds[t]);
+        }
+
+        /*
+         * Every boundary at the same instant is applied before the strongest open type is checked,
+         * so occurrences that touch are merged.
+         */
+        final int[] nextStarts = new int[TYPES.length];
+        final int[] nextEnds = new int[TYPES.length];
+        final int[] open = new int[TYPES.length];
+        final long[] resultStarts = new long[2 * size + 1];
+        final long[] resultEnds = new long[2 * size + 1];
+        final int[] resultTypes = new int[2 * size + 1];
+        int count = 0;
+        int current = -1;
+        long currentStart = 0;
+        while (true) {
+            long instant = Long.MAX_VALUE;
+            for (int t = 0; t < TYPES.length; t++) {
+                if (nextStarts[t] < typeStarts[t].length) {
+                    instant = Math.min(instant, typeStarts[t][nextStarts[t]]);
+                }
+                if (nextEnds[t] < typeEnds[t].length) {
+                    instant = Math.min(instant, typeEnds[t][nextEnds[t]]);
+                }
+            }
+            if (instant == Long.MAX_VALUE) {
+                break;
+            }
+            int strongest = -1;
+            for (int t = TYPES.length - 1; t >= 0; t--) {
+                while (nextStarts[t] < typeStarts[t].length && typeStarts[t][nextStarts[t]] == instant) {
+                    nextStarts[t]++;
+                    open[t]++;
+                }
+                while (nextEnds[t] < typeEnds[t].length && typeEnds[t][nextEnds[t]] == instant) {
+                    nextEnds[t]++;
+                    open[t]--;
+                }
+                if (open[t] > 0) {
+                    strongest = t;
+                }
+            }
+            if (strongest != current) {
+                if (current >= 0) {
+                    resultStarts[count] = currentStart;
+                    resultEnds[count] = instant;
+                    resultTypes[count++] = current;
+                }
+                current = strongest;
+                currentStart = instant;
+            }
+        }
+        return new BusyIntervals(windowStart, windowEnd, resultStarts, resultEnds, resultTypes, count);
+    }
+
+    public long getEnd(final int index) {
+        checkIndex(index);
+        return ends[index];
+    }
+
+    /**
+     * Returns the index of the first interval ending after <code>instant</code>, or
+     * <code>size()</code> if there is none.
+     *
+     * @param instant
+     * @return
+     */
+    public int getFirstIndex(final long instant) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (ends[middle] <= instant) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    public Period getPeriod(final int index) {
+        Calendar start = Calendar.getInstance();
+        start.setTimeInMillis(getStart(index));
+        Calendar end = Calendar.getInstance();
+        end.setTimeInMillis(getEnd(index));
+        return new Period(start, end);
+    }
+
+    public long getStart(final int index) {
+        checkIndex(index);
+        return starts[index];
+    }
+
+    /**
+     * Returns the free/busy type of an interval, one of <code>VFreeBusy.BUSY_UNAVAILABLE</code>,
+     * <code>VFreeBusy.BUSY</code> and <code>VFreeBusy.BUSY_TENTATIVE</code>.
+     *
+     * @param index
+     * @return
+     */
+    public String getType(final int index) {
+        checkIndex(index);
+        return TYPES[types[index]];
+    }
+
+    public long getWindowEnd() {
+        return windowEnd;
+    }
+
+    public long getWindowStart() {
+        return windowStart;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void checkIndex(final int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+    }
+}
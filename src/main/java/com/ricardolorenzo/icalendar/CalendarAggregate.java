@@ -0,0 +1,172 @@
+/*
+ * CalendarAggregate class
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ *
+ * Author: Ricardo Lorenzo <unshakablespirit@gmail.com>
+ */
+package com.ricardolorenzo.icalendar;
+
+import java.util.Arrays;
+import java.util.Calendar;
+
+/**
+ * Totals of the occurrences of a period split into consecutive buckets, such as the days of a
+ * month or the weeks of a year: the number of occurrences, the number of distinct components and
+ * the busy time of each bucket.
+ *
+ * The totals are added up in one sweep over the sorted occurrences into primitive arrays, without
+ * building lists of components. An occurrence counts in every bucket it overlaps. Busy time is the
+ * time covered by at least one occurrence, so overlapping occurrences are counted once, and
+ * transparent and cancelled events are left out of it.
+ *
+ * @author Ricardo_Lorenzo
+ *
+ */
+public class CalendarAggregate {
+    private final long[] bounds;
+    private final int[] keys;
+    private final int[] counts;
+    private final int[] distinct;
+    private final long[] busy;
+
+    private CalendarAggregate(final long[] bounds, final int[] keys, final int[] counts, final int[] distinct,
+            final long[] busy) {
+        this.bounds = bounds;
+        this.keys = keys;
+        this.counts = counts;
+        this.distinct = distinct;
+        this.busy = busy;
+    }
+
+    /**
+     * Adds up the occurrences of a period starting at <code>periodStart</code>, whose window must
+     * match <code>bounds</code>. Each bucket is keyed by the value of the <code>Calendar</code>
+     * field <code>key</code> at its start.
+     */
+    static CalendarAggregate build(final CalendarOccurrences occurrences, final Calendar periodStart,
+            final long[] bounds, final int key) {
+        final int size = bounds.length - 1;
+        final int[] keys = CalendarGrid.getKeys(periodStart, bounds, key);
+
+        /*
+         * Occurrences are sorted by start, so a component already counted in a bucket is always
+         * counted up to the last bucket it reached, and the busy time only grows past the end of
+         * the busy time seen so far.
+         */
+        final int[] counts = new int[size];
+        final int[] distinct = new int[size];
+        final long[] busy = new long[size];
+        final int[] covered = new int[occurrences.getComponentCount()];
+        Arrays.fill(covered, -1);
+        long busyEnd = Long.MIN_VALUE;
+        int first = 0;
+        for (int i = 0; size > 0 && i < occurrences.size(); i++) {
+            final long start = occurrences.getStart(i);
+            final long end = occurrences.getEnd(i);
+            while (first < size - 1 && bounds[first + 1] <= start) {
+                first++;
+            }
+            int last = first;
+            while (last < size - 1 && bounds[last + 1] < end) {
+                last++;
+            }
+            final int component = occurrences.getComponentIndex(i);
+            for (int b = first; b <= last; b++) {
+                counts[b]++;
+                if (b > covered[component]) {
+                    distinct[b]++;
+                }
+            }
+            covered[component] = Math.max(covered[component], last);
+
+            if (end > busyEnd && BusyIntervals.getType(occurrences.getInstance(i)) >= 0) {
+                final long busyStart = Math.max(start, busyEnd);
+                for (int b = first; b <= last; b++) {
+                    busy[b] += Math.max(0L, Math.min(end, bounds[b + 1]) - Math.max(busyStart, bounds[b]));
+                }
+                busyEnd = end;
+            }
+        }
+        return new CalendarAggregate(bounds, keys, counts, distinct, busy);
+    }
+
+    /**
+     * Returns the busy time of a bucket in milliseconds.
+     *
+     * @param bucket
+     * @return
+     */
+    public long getBusyTime(final int bucket) {
+        checkBucket(bucket);
+        return busy[bucket];
+    }
+
+    /**
+     * Returns the number of occurrences overlapping a bucket.
+     *
+     * @param bucket
+     * @return
+     */
+    public int getCount(final int bucket) {
+        checkBucket(bucket);
+        return counts[bucket];
+    }
+
+    /**
+     * Returns the number of distinct components, and so of UIDs, with an occurrence overlapping a
+     * bucket.
+     *
+     * @param bucket
+     * @return
+     */
+    public int getDistinctCount(final int bucket) {
+        checkBucket(bucket);
+        return distinct[bucket];
+    }
+
+    public long getEnd(final int bucket) {
+        checkBucket(bucket);
+        return bounds[bucket + 1];
+    }
+
+    /**
+     * Returns the key of a bucket, such as its day of the month.
+     *
+     * @param bucket
+     * @return
+     */
+    public int getKey(final int bucket) {
+        checkBucket(bucket);
+        return keys[bucket];
+    }
+
+    public long getStart(final int bucket) {
+        checkBucket(bucket);
+        return bounds[bucket];
+    }
+
+    /**
+     * Returns the number of buckets.
+     *
+     * @return
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    private void checkBucket(final int bucket) {
+        if (bucket < 0 || bucket >= keys.length) {
+            throw new IndexOutOfBoundsException(String.valueOf(bucket));
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * CalendarConflicts class
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ *
+ * Author: Ricardo Lorenzo <unshakablespirit@gmail.com>
+ */
+package com.ricardolorenzo.icalendar;
+
+import java.util.Arrays;
+
+/**
+ * Pairs of overlapping occurrences of different components in a window, stored as parallel
+ * <code>int</code> arrays of indexes into the <code>CalendarOccurrences</code> of the window.
+ *
+ * The pairs come from a sweep over the occurrences sorted by start that keeps the occurrences
+ * still open apart for each component. The open occurrences of the component of a new occurrence
+ * are skipped, and every other open occurrence looked at either has ended, and is dropped, or
+ * overlaps the new one, so the sweep costs <code>O(n + k)</code> for <code>n</code> occurrences
+ * and <code>k</code> pairs after the sort, even when the occurrences of one component overlap each
+ * other. Occurrences that only touch do not overlap, and occurrences without length never
+ * overlap.
+ *
+ * @author Ricardo_Lorenzo
+ *
+ */
+public class CalendarConflicts {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private final CalendarOccurrences occurrences;
+    private int[] firsts;
+    private int[] seconds;
+    private int size;
+
+    private CalendarConflicts(final CalendarOccurrences occurrences) {
+        this.occurrences = occurrences;
+        this.firsts = new int[DEFAULT_CAPACITY];
+        this.seconds = new int[DEFAULT_CAPACITY];
+        this.size = 0;
+    }
+
+    /**
+     * Finds the overlapping occurrences of different components, leaving out transparent and
+     * cancelled occurrences when asked to.
+     */
+    static CalendarConflicts find(final CalendarOccurrences occurrences, final boolean ignoreTransparent,
+            final boolean ignoreCancelled) {
+        final CalendarConflicts conflicts = new CalendarConflicts(occurrences);
+        final int[][] open = new int[occurrences.getComponentCount()][];
+        final int[] counts = new int[open.length];
+        int[] active = new int[DEFAULT_CAPACITY];
+        int activeCount = 0;
+        for (int i = 0; i < occurrences.size(); i++) {
+            final long start = occurrences.getStart(i);
+            if (occurrences.getEnd(i) <= start
+                    || isIgnored(occurrences.getInstance(i), ignoreTransparent, ignoreCancelled)) {
+                continue;
+            }
+            final int component = occurrences.getComponentIndex(i);
+            int kept = 0;
+            for (int a = 0; a < activeCount; a++) {
+                final int other = active[a];
+                if (other != component) {
+                    counts[other] = conflicts.addOverlaps(open[other], counts[other], i, start);
+                }
+                if (counts[other] > 0) {
+                    active[kept++] = other;
+                }
+            }
+            activeCount = kept;
+
+            if (counts[component] == 0) {
+                if (activeCount == active.length) {
+                    active = Arrays.copyOf(active, activeCount * 2);
+                }
+                active[activeCount++] = component;
+                if (open[component] == null) {
+                    open[component] = new int[4];
+                }
+            } else if (counts[component] == open[component].length) {
+                open[component] = Arrays.copyOf(open[component], counts[component] * 2);
+            }
+            open[component][counts[component]++] = i;
+        }
+        return conflicts;
+    }
+
+    /**
+     * Pairs the open occurrences of one component with the occurrence <code>second</code>,
+     * dropping the ones that ended by <code>start</code>.
+     * @return the number of occurrences still open
+     */
+    private int addOverlaps(final int[] open, final int count, final int second, final long start) {
+        int kept = 0;
+        for (int j = 0; j < count; j++) {
+            if (occurrences.getEnd(open[j]) > start) {
+                add(open[j], second);
+                open[kept++] = open[j];
+            }
+        }
+        return kept;
+    }
+
+    private static boolean isIgnored(final VAction instance, final boolean ignoreTransparent,
+            final boolean ignoreCancelled) {
+        if (ignoreTransparent && instance instanceof VEvent && ((VEvent) instance).isTransparent()) {
+            return true;
+        }
+        return ignoreCancelled && "CANCELLED".equalsIgnoreCase(instance.getStatus());
+    }
+
+    private void add(final int first, final int second) {
+        if (size == firsts.length) {
+            firsts = Arrays.copyOf(firsts, size * 2);
+            seconds = Arrays.copyOf(seconds, size * 2);
+        }
+        firsts[size] = first;
+        seconds[size] = second;
+        size++;
+    }
+
+    /**
+     * Returns the index in <code>getOccurrences()</code> of the occurrence of a pair that starts
+     * first.
+     *
+     * @param index
+     * @return
+     */
+    public int getFirst(final int index) {
+        checkIndex(index);
+        return firsts[index];
+    }
+
+    public String getFirstUid(final int index) {
+        return occurrences.getComponent(getFirst(index)).getUid();
+    }
+
+    /**
+     * Returns the occurrences of the window the pairs refer to.
+     *
+     * @return
+     */
+    public CalendarOccurrences getOccurrences() {
+        return occurrences;
+    }
+
+    /**
+     * Returns the index in <code>getOccurrences()</code> of the occurrence of a pair that starts
+     * last.
+     *
+     * @param index
+     * @return
+     */
+    public int getSecond(final int index) {
+        checkIndex(index);
+        return seconds[index];
+    }
+
+    public String getSecondUid(final int index) {
+        return occurrences.getComponent(getSecond(index)).getUid();
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void checkIndex(final int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * CalendarGrid class
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ *
+ * Author: Ricardo Lorenzo <unshakablespirit@gmail.com>
+ */
+package com.ricardolorenzo.icalendar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Components of a calendar view split into consecutive buckets, such as the days of a month or
+ * the hours of a day. Each bucket holds the components with an occurrence overlapping it, once
+ * each, in the order of their first occurrence in the bucket. A grid cannot be modified.
+ *
+ * The grid is filled in one sweep over the sorted occurrences of the view, and the buckets are
+ * stored as one array of component numbers with the offset of each bucket.
+ *
+ * @author Ricardo_Lorenzo
+ *
+ */
+public class CalendarGrid<T extends VAction> {
+    private final List<T> components;
+    private final long[] bounds;
+    private final int[] keys;
+    private final int[] offsets;
+    private final int[] members;
+
+    private CalendarGrid(final List<T> components, final long[] bounds, final int[] keys, final int[] offsets,
+            final int[] members) {
+        this.components = components;
+        this.bounds = bounds;
+        this.keys = keys;
+        this.offsets = offsets;
+        this.members = members;
+    }
+
+    /**
+     * Returns the bounds of the buckets of one unit of the <code>Calendar</code> field
+     * <code>step</code> between <code>start</code> and <code>end</code>. The last bucket is cut at
+     * <code>end</code>.
+     */
+    static long[] getBounds(final Calendar start, final Calendar end, final int step) {
+        final Calendar offset = (Calendar) start.clone();
+        long[] bounds = new long[32];
+        int size = 0;
+        while (true) {
+            if (size == bounds.length) {
+                bounds = Arrays.copyOf(bounds, size * 2);
+            }
+            long time = Math.min(offset.getTimeInMillis(), end.getTimeInMillis());
+            bounds[size++] = time;
+            if (time >= end.getTimeInMillis()) {
+                return Arrays.copyOf(bounds, size);
+            }
+            offset.add(step, 1);
+        }
+    }
+
+    /**
+     * Returns the value of the <code>Calendar</code> field <code>key</code> at the start of every
+     * bucket, read in the time zone of <code>start</code>, where the bounds were stepped.
+     */
+    static int[] getKeys(final Calendar start, final long[] bounds, final int key) {
+        final int[] keys = new int[Math.max(bounds.length - 1, 0)];
+        final Calendar offset = (Calendar) start.clone();
+        for (int b = 0; b < keys.length; b++) {
+            offset.setTimeInMillis(bounds[b]);
+            keys[b] = offset.get(key);
+        }
+        return keys;
+    }
+
+    /**
+     * Builds the grid of the occurrences of a view starting at <code>viewStart</code>, whose window
+     * must match <code>bounds</code>. Each bucket is keyed by the value of the
+     * <code>Calendar</code> field <code>key</code> at its start.
+     */
+    static <T extends VAction> CalendarGrid<T> build(final CalendarOccurrences occurrences, final Class<T> type,
+            final Calendar viewStart, final long[] bounds, final int key) {
+        final int size = bounds.length - 1;
+        final int[] keys = getKeys(viewStart, bounds, key);
+
+        /*
+         * Numbers the components in the order of their first occurrence. Occurrences are sorted by
+         * start, so the buckets already holding a component are always the ones up to the last
+         * bucket it reached, and each occurrence only adds the buckets after it.
+         */
+        final List<T> components = new ArrayList<T>();
+        final Map<VAction, Integer> numbers = new IdentityHashMap<VAction, Integer>();
+        int[] covered = new int[16];
+        int[] pairBuckets = new int[Math.max(occurrences.size(), 16)];
+        int[] pairMembers = new int[pairBuckets.length];
+        int pairs = 0;
+        final int[] counts = new int[size + 1];
+        int first = 0;
+        for (int i = 0; size > 0 && i < occurrences.size(); i++) {
+            final long start = occurrences.getStart(i);
+            final long end = occurrences.getEnd(i);
+            while (first < size - 1 && bounds[first + 1] <= start) {
+                first++;
+            }
+            int last = first;
+            while (last < size - 1 && bounds[last + 1] < end) {
+                last++;
+            }
+            final VAction component = occurrences.getComponent(i);
+            Integer number = numbers.get(component);
+            if (number == null) {
+                number = components.size();
+                numbers.put(component, number);
+                components.add(type.cast(component));
+                if (number == covered.length) {
+                    covered = Arrays.copyOf(covered, number * 2);
+                }
+                covered[number] = -1;
+            }
+            for (int b = Math.max(first, covered[number] + 1); b <= last; b++) {
+                if (pairs == pairBuckets.length) {
+                    pairBuckets = Arrays.copyOf(pairBuckets, pairs * 2);
+                    pairMembers = Arrays.copyOf(pairMembers, pairs * 2);
+                }
+                pairBuckets[pairs] = b;
+                pairMembers[pairs++] = number;
+                counts[b + 1]++;
+            }
+            covered[number] = Math.max(covered[number], last);
+        }
+
+        for (int b = 0; b < size; b++) {
+            counts[b + 1] += counts[b];
+        }
+        final int[] offsets = Arrays.copyOf(counts, size + 1);
+        final int[] members = new int[pairs];
+        for (int p = 0; p < pairs; p++) {
+            members[counts[pairBuckets[p]]++] = pairMembers[p];
+        }
+        return new CalendarGrid<T>(components, bounds, keys, offsets, members);
+    }
+
+    /**
+     * Returns the components of a bucket.
+     *
+     * @param bucket
+     * @return
+     */
+    public List<T> get(final int bucket) {
+        checkBucket(bucket);
+        final List<T> values = new ArrayList<T>(offsets[bucket + 1] - offsets[bucket]);
+        for (int i = offsets[bucket]; i < offsets[bucket + 1]; i++) {
+            values.add(components.get(members[i]));
+        }
+        return Collections.unmodifiableList(values);
+    }
+
+    /**
+     * Returns the number of components in a bucket.
+     *
+     * @param bucket
+     * @return
+     */
+    public int getCount(final int bucket) {
+        checkBucket(bucket);
+        return offsets[bucket + 1] - offsets[bucket];
+    }
+
+    public long getEnd(final int bucket) {
+        checkBucket(bucket);
+        return bounds[bucket + 1];
+    }
+
+    /**
+     * Returns the key of a bucket, such as its day of the month.
+     *
+     * @param bucket
+     * @return
+     */
+    public int getKey(final int bucket) {
+        checkBucket(bucket);
+        return keys[bucket];
+    }
+
+    public long getStart(final int bucket) {
+        checkBucket(bucket);
+        return bounds[bucket];
+    }
+
+    /**
+     * Returns the UIDs of the components of a bucket.
+     *
+     * @param bucket
+     * @return
+     */
+    public List<String> getUids(final int bucket) {
+        checkBucket(bucket);
+        final List<String> uids = new ArrayList<String>(offsets[bucket + 1] - offsets[bucket]);
+        for (int i = offsets[bucket]; i < offsets[bucket + 1]; i++) {
+            uids.add(components.get(members[i]).getUid());
+        }
+        return Collections.unmodifiableList(uids);
+    }
+
+    /**
+     * Returns the number of buckets.
+     *
+     * @return
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * Returns the components of the buckets that are not empty by key. Buckets with the same key,
+     * such as the repeated hour when daylight saving time ends, are merged.
+     *
+     * @return
+     */
+    public Map<Integer, List<T>> toMap() {
+        final Map<Integer, List<T>> map = new HashMap<Integer, List<T>>();
+        for (int b = 0; b < size(); b++) {
+            if (offsets[b + 1] == offsets[b]) {
+                continue;
+            }
+            final List<T> values = map.get(keys[b]);
+            if (values == null) {
+                map.put(keys[b], new ArrayList<T>(get(b)));
+            } else {
+                final Set<T> merged = new LinkedHashSet<T>(values);
+                merged.addAll(get(b));
+                map.put(keys[b], new ArrayList<T>(merged));
+            }
+        }
+        return map;
+    }
+
+    private void checkBucket(final int bucket) {
+        if (bucket < 0 || bucket >= keys.length) {
+            throw new IndexOutOfBoundsException(String.valueOf(bucket));
+        }
+    }
+}
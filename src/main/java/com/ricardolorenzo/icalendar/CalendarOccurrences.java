@@ -0,0 +1,398 @@
+/*
+ * CalendarOccurrences class
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ *
+ * Author: Ricardo Lorenzo <unshakablespirit@gmail.com>
+ */
+package com.ricardolorenzo.icalendar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Occurrences of many components in one window, sorted by start and then by end, stored as
+ * parallel primitive arrays of start and end milliseconds and component indexes.
+ *
+ * Every component is expanded straight into the shared arrays, reusing one cursor buffer, and the
+ * sorted runs of the components are merged at the end.
+ *
+ * @author Ricardo_Lorenzo
+ *
+ */
+public class CalendarOccurrences {
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private final VAction[] components;
+    private final long windowStart;
+    private final long windowEnd;
+    private final ExpansionBudget budget;
+    private long[] starts;
+    private long[] ends;
+    private int[] indexes;
+    private boolean[] modified;
+    private int size;
+    private long[] scratch;
+    private List<VAction> truncated;
+
+    CalendarOccurrences(final VAction[] components, final long start, final long end,
+            final ExpansionBudget budget) {
+        this.components = components;
+        this.windowStart = start;
+        this.windowEnd = end;
+        this.budget = budget;
+        this.starts = new long[DEFAULT_CAPACITY];
+        this.ends = new long[DEFAULT_CAPACITY];
+        this.indexes = new int[DEFAULT_CAPACITY];
+        this.modified = new boolean[DEFAULT_CAPACITY];
+        this.size = 0;
+    }
+
+    /**
+     * Expands the occurrences of <code>components</code> overlapping the window between
+     * <code>start</code> and <code>end</code>. When <code>parallel</code> is true, slices of the
+     * components are expanded on the common fork-join pool and merged.
+     *
+     * @param components
+     * @param start
+     * @param end
+     * @param parallel
+     * @return
+     */
+    public static CalendarOccurrences expand(final Collection<? extends VAction> components, final long start,
+            final long end, final boolean parallel) {
+        return expand(components, start, end, parallel, null);
+    }
+
+    /**
+     * Expands the occurrences of <code>components</code> overlapping the window between
+     * <code>start</code> and <code>end</code>, stopping each component at <code>budget</code>
+     * unless it has a budget of its own.
+     *
+     * @param components
+     * @param start
+     * @param end
+     * @param parallel
+     * @param budget
+     * @return
+     */
+    public static CalendarOccurrences expand(final Collection<? extends VAction> components, long start, long end,
+            final boolean parallel, final ExpansionBudget budget) {
+        start = VAction.getSecond(start);
+        end = VAction.getSecond(end);
+        final VAction[] values = components.toArray(new VAction[components.size()]);
+        final CalendarOccurrences occurrences = new CalendarOccurrences(values, start, end, budget);
+        int slices = parallel ? Math.min(values.length, Runtime.getRuntime().availableProcessors() * 4) : 1;
+        if (start > end) {
+            return occurrences;
+        } else if (slices <= 1) {
+            occurrences.expand(0, values.length);
+        } else {
+            final int length = (values.length + slices - 1) / slices;
+            List<CalendarOccurrences> parts = IntStream.range(0, slices).parallel().mapToObj(slice -> {
+                CalendarOccurrences part = new CalendarOccurrences(values, occurrences.windowStart,
+                        occurrences.windowEnd, budget);
+                part.expand(slice * length, Math.min((slice + 1) * length, values.length));
+                return part;
+            }).collect(Collectors.toList());
+            for (CalendarOccurrences part : parts) {
+                occurrences.addAll(part);
+            }
+        }
+        occurrences.sort();
+        return occurrences;
+    }
+
+    private void expand(final int from, final int to) {
+        for (int i = from; i < to && i < components.length; i++) {
+            if (components[i].addOccurrences(windowStart, windowEnd, this, i, budget)) {
+                if (truncated == null) {
+                    truncated = new ArrayList<VAction>();
+                }
+                truncated.add(components[i]);
+            }
+        }
+    }
+
+    /**
+     * Appends an occurrence of the rule of the component at <code>index</code>. Each component
+     * appends its occurrences in chronological order.
+     */
+    void add(final long start, final long end, final int index) {
+        add(start, end, index, false);
+    }
+
+    /**
+     * Appends an occurrence of the component at <code>index</code>, which comes from one of its
+     * modified instances if <code>override</code> is true. The occurrences of the rule and of the
+     * modified instances are appended as separate chronological runs.
+     */
+    void add(final long start, final long end, final int index, final boolean override) {
+        if (size == starts.length) {
+            int capacity = starts.length * 2;
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            indexes = Arrays.copyOf(indexes, capacity);
+            modified = Arrays.copyOf(modified, capacity);
+        }
+        starts[size] = start;
+        ends[size] = end;
+        indexes[size] = index;
+        modified[size] = override;
+        size++;
+    }
+
+    private void addAll(final CalendarOccurrences other) {
+        for (int i = 0; i < other.size; i++) {
+            add(other.starts[i], other.ends[i], other.indexes[i], other.modified[i]);
+        }
+        if (other.truncated != null) {
+            if (truncated == null) {
+                truncated = new ArrayList<VAction>();
+            }
+            truncated.addAll(other.truncated);
+        }
+    }
+
+    /**
+     * Returns the cursor buffer shared by the components expanded into this result.
+     */
+    long[] getScratch() {
+        if (scratch == null) {
+            scratch = new long[16];
+        }
+        return scratch;
+    }
+
+    void setScratch(final long[] scratch) {
+        this.scratch = scratch;
+    }
+
+    /**
+     * Merges the sorted runs appended by each component, bottom up.
+     */
+    private void sort() {
+        if (size < 2) {
+            return;
+        }
+        long[] sourceStarts = starts;
+        long[] sourceEnds = ends;
+        int[] sourceIndexes = indexes;
+        boolean[] sourceModified = modified;
+        long[] targetStarts = new long[starts.length];
+        long[] targetEnds = new long[starts.length];
+        int[] targetIndexes = new int[starts.length];
+        boolean[] targetModified = new boolean[starts.length];
+
+        int[] runs = new int[size + 1];
+        int count = 0;
+        runs[count++] = 0;
+        for (int i = 1; i < size; i++) {
+            if (compare(sourceStarts, sourceEnds, i - 1, i) > 0) {
+                runs[count++] = i;
+            }
+        }
+        runs[count] = size;
+
+        while (count > 1) {
+            int merged = 0;
+            for (int r = 0; r < count; r += 2) {
+                int low = runs[r];
+                int middle = runs[Math.min(r + 1, count)];
+                int high = runs[Math.min(r + 2, count)];
+                int i = low;
+                int j = middle;
+                for (int k = low; k < high; k++) {
+                    if (j >= high || (i < middle && compare(sourceStarts, sourceEnds, i, j) <= 0)) {
+                        targetStarts[k] = sourceStarts[i];
+                        targetEnds[k] = sourceEnds[i];
+                        targetIndexes[k] = sourceIndexes[i];
+                        targetModified[k] = sourceModified[i++];
+                    } else {
+                        targetStarts[k] = sourceStarts[j];
+                        targetEnds[k] = sourceEnds[j];
+                        targetIndexes[k] = sourceIndexes[j];
+                        targetModified[k] = sourceModified[j++];
+                    }
+                }
+                runs[merged++] = low;
+            }
+            runs[merged] = size;
+            count = merged;
+
+            long[] startsSwap = sourceStarts;
+            sourceStarts = targetStarts;
+            targetStarts = startsSwap;
+            long[] endsSwap = sourceEnds;
+            sourceEnds = targetEnds;
+            targetEnds = endsSwap;
+            int[] indexesSwap = sourceIndexes;
+            sourceIndexes = targetIndexes;
+            targetIndexes = indexesSwap;
+            boolean[] modifiedSwap = sourceModified;
+            sourceModified = targetModified;
+            targetModified = modifiedSwap;
+        }
+        starts = sourceStarts;
+        ends = sourceEnds;
+        indexes = sourceIndexes;
+        modified = sourceModified;
+    }
+
+    private static int compare(final long[] starts, final long[] ends, final int i, final int j) {
+        if (starts[i] != starts[j]) {
+            return starts[i] < starts[j] ? -1 : 1;
+        }
+        if (ends[i] != ends[j]) {
+            return ends[i] < ends[j] ? -1 : 1;
+        }
+        return 0;
+    }
+
+    public VAction getComponent(final int index) {
+        checkIndex(index);
+        return components[indexes[index]];
+    }
+
+    /**
+     * Returns the modified instance an occurrence comes from, or its component if it is an
+     * occurrence of the rule.
+     */
+    VAction getInstance(final int index) {
+        checkIndex(index);
+        final VAction component = components[indexes[index]];
+        return modified[index] ? component.getInstance(starts[index]) : component;
+    }
+
+    /**
+     * Returns the number of components expanded, with or without occurrences.
+     */
+    int getComponentCount() {
+        return components.length;
+    }
+
+    /**
+     * Returns the position of the component of an occurrence among the components expanded.
+     */
+    int getComponentIndex(final int index) {
+        checkIndex(index);
+        return indexes[index];
+    }
+
+    /**
+     * Returns the components with at least one occurrence, in the order of their first
+     * occurrence.
+     *
+     * @return
+     */
+    public List<VAction> getComponents() {
+        return getComponents(VAction.class);
+    }
+
+    /**
+     * Returns the components of a type with at least one occurrence, in the order of their first
+     * occurrence.
+     *
+     * @param type
+     * @return
+     */
+    public <T extends VAction> List<T> getComponents(final Class<T> type) {
+        boolean[] seen = new boolean[components.length];
+        List<T> values = new ArrayList<T>();
+        for (int i = 0; i < size; i++) {
+            int index = indexes[i];
+            if (!seen[index] && type.isInstance(components[index])) {
+                seen[index] = true;
+                values.add(type.cast(components[index]));
+            }
+        }
+        return values;
+    }
+
+    public long getEnd(final int index) {
+        checkIndex(index);
+        return ends[index];
+    }
+
+    public Period getPeriod(final int index) {
+        Calendar start = Calendar.getInstance();
+        start.setTimeInMillis(getStart(index));
+        Calendar end = Calendar.getInstance();
+        end.setTimeInMillis(getEnd(index));
+        return new Period(start, end);
+    }
+
+    public long getStart(final int index) {
+        checkIndex(index);
+        return starts[index];
+    }
+
+    /**
+     * Returns the components whose expansion stopped at the budget.
+     *
+     * @return
+     */
+    public List<VAction> getTruncatedComponents() {
+        if (truncated == null) {
+            return new ArrayList<VAction>();
+        }
+        return new ArrayList<VAction>(truncated);
+    }
+
+    public long getWindowEnd() {
+        return windowEnd;
+    }
+
+    public long getWindowStart() {
+        return windowStart;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns true if an occurrence comes from a modified instance of its component rather than
+     * from its rule.
+     *
+     * @param index
+     * @return
+     */
+    public boolean isOverride(final int index) {
+        checkIndex(index);
+        return modified[index];
+    }
+
+    /**
+     * Returns true if the expansion of any component stopped at the budget.
+     *
+     * @return
+     */
+    public boolean isTruncated() {
+        return truncated != null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void checkIndex(final int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * ComponentFilter class
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ *
+ * Author: Ricardo Lorenzo <unshakablespirit@gmail.com>
+ */
+package com.ricardolorenzo.icalendar;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Conditions on the CATEGORIES, STATUS, ORGANIZER and ATTENDEE properties of a component. A
+ * component matches when it meets every condition added; a filter without conditions matches
+ * every component. Values are compared ignoring case, and mail addresses with or without the
+ * <code>mailto:</code> prefix.
+ *
+ * @author Ricardo_Lorenzo
+ *
+ */
+public class ComponentFilter {
+    private final List<String> categories;
+    private final List<String> organizers;
+    private final List<String> attendees;
+    private String status;
+
+    public ComponentFilter() {
+        this.categories = new ArrayList<String>();
+        this.organizers = new ArrayList<String>();
+        this.attendees = new ArrayList<String>();
+    }
+
+    /**
+     * Requires an attendee with the mail address.
+     *
+     * @param mail
+     */
+    public void addAttendee(final String mail) {
+        if (mail != null) {
+            this.attendees.add(mail);
+        }
+    }
+
+    /**
+     * Requires the category.
+     *
+     * @param category
+     */
+    public void addCategory(final String category) {
+        if (category != null) {
+            this.categories.add(category);
+        }
+    }
+
+    /**
+     * Requires an organizer with the mail address.
+     *
+     * @param mail
+     */
+    public void addOrganizer(final String mail) {
+        if (mail != null) {
+            this.organizers.add(mail);
+        }
+    }
+
+    public List<String> getAttendees() {
+        return new ArrayList<String>(this.attendees);
+    }
+
+    public List<String> getCategories() {
+        return new ArrayList<String>(this.categories);
+    }
+
+    public List<String> getOrganizers() {
+        return new ArrayList<String>(this.organizers);
+    }
+
+    public String getStatus() {
+        return this.status;
+    }
+
+    /**
+     * Requires the status, or no status condition if it is null.
+     *
+     * @param status
+     */
+    public void setStatus(final String status) {
+        this.status = status;
+    }
+}
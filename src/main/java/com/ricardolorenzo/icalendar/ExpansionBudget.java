@@ -0,0 +1,60 @@
+/*
+ * ExpansionBudget class
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ *
+ * Author: Ricardo Lorenzo <unshakablespirit@gmail.com>
+ */
+package com.ricardolorenzo.icalendar;
+
+import java.io.Serializable;
+
+/**
+ * Limits the work of expanding one component for one query: the number of occurrences returned
+ * and the number of intervals of the frequency examined. An expansion that reaches either limit
+ * stops and marks its result as truncated.
+ *
+ * @author Ricardo_Lorenzo
+ *
+ */
+public class ExpansionBudget implements Serializable {
+    public static final long serialVersionUID = 89472947947291873L;
+
+    private final int maxOccurrences;
+    private final long maxIterations;
+
+    public ExpansionBudget(final int maxOccurrences, final long maxIterations) {
+        if (maxOccurrences <= 0 || maxIterations <= 0) {
+            throw new IllegalArgumentException("invalid expansion budget");
+        }
+        this.maxOccurrences = maxOccurrences;
+        this.maxIterations = maxIterations;
+    }
+
+    /**
+     * Returns the maximum number of intervals of the frequency examined per component and query.
+     *
+     * @return
+     */
+    public long getMaxIterations() {
+        return maxIterations;
+    }
+
+    /**
+     * Returns the maximum number of occurrences returned per component and query.
+     *
+     * @return
+     */
+    public int getMaxOccurrences() {
+        return maxOccurrences;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * OccurrenceCache class
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ *
+ * Author: Ricardo Lorenzo <unshakablespirit@gmail.com>
+ */
+package com.ricardolorenzo.icalendar;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of the occurrences expanded for the windows of one component, with
+ * hit and miss statistics.
+ *
+ * Every invalidation starts a new generation, and results computed during an older generation are
+ * not stored, so an expansion racing with a change never caches stale occurrences.
+ *
+ * @author Ricardo_Lorenzo
+ *
+ */
+public class OccurrenceCache {
+    private final int size;
+    private final Map<Window, OccurrenceSet> entries;
+    private long generation;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    public OccurrenceCache(final int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("invalid cache size");
+        }
+        this.size = size;
+        this.entries = new LinkedHashMap<Window, OccurrenceSet>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Window, OccurrenceSet> eldest) {
+                if (size() > OccurrenceCache.this.size) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Removes every cached window.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        generation++;
+        invalidations++;
+    }
+
+    /**
+     * Returns the occurrences cached for a window, or null after counting a miss.
+     *
+     * @param start
+     * @param end
+     * @return
+     */
+    synchronized OccurrenceSet get(final long start, final long end) {
+        OccurrenceSet occurrences = entries.get(new Window(start, end));
+        if (occurrences == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return occurrences;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the fraction of lookups answered from the cache.
+     *
+     * @return
+     */
+    public synchronized double getHitRatio() {
+        if (hits + misses == 0) {
+            return 0;
+        }
+        return (double) hits / (hits + misses);
+    }
+
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the maximum number of windows kept.
+     *
+     * @return
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Stores the occurrences of a window, unless the cache was invalidated after
+     * <code>generation</code>.
+     */
+    synchronized void put(final long start, final long end, final OccurrenceSet occurrences, final long generation) {
+        if (generation == this.generation) {
+            entries.put(new Window(start, end), occurrences);
+        }
+    }
+
+    public synchronized void resetStatistics() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+        invalidations = 0;
+    }
+
+    /**
+     * Returns the number of windows currently cached.
+     *
+     * @return
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private static final class Window {
+        private final long start;
+        private final long end;
+
+        Window(final long start, final long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Window)) {
+                return false;
+            }
+            Window w = (Window) o;
+            return start == w.start && end == w.end;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) ((start ^ (start >>> 32)) * 31 + (end ^ (end >>> 32)));
+        }
+    }
+}
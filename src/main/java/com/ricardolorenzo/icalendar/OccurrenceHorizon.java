@@ -0,0 +1,153 @@
+/*
+ * OccurrenceHorizon class
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ *
+ * Author: Ricardo Lorenzo <unshakablespirit@gmail.com>
+ */
+package com.ricardolorenzo.icalendar;
+
+/**
+ * Materialized occurrences of a recurring component from "now" up to a rolling horizon.
+ *
+ * The occurrences are kept in a sorted <code>OccurrenceSet</code>, so window lookups are binary
+ * searches. One <code>RecurrenceCursor</code> stays open past the last materialized occurrence,
+ * and the horizon is extended from it when time passes or a query reaches beyond it, without
+ * expanding the rule again from DTSTART.
+ *
+ * @author Ricardo_Lorenzo
+ *
+ */
+public class OccurrenceHorizon {
+    private final VAction action;
+    private final long length;
+    private final long occurrenceLength;
+    private final RecurrenceCursor cursor;
+    private OccurrenceSet occurrences;
+    private long start;
+    private long end;
+    private long pending;
+    private boolean hasPending;
+
+    OccurrenceHorizon(final VAction action, final RecurrenceEngine engine, final long now, final long length) {
+        this.action = action;
+        this.length = length;
+        this.occurrenceLength = action.getOccurrenceLength();
+        this.start = VAction.getSecond(now);
+        this.end = this.start;
+        this.cursor = engine.getCursor(this.start - this.occurrenceLength, Long.MAX_VALUE);
+        this.occurrences = new OccurrenceSet();
+        extend(this.start + length);
+    }
+
+    /**
+     * Drops the occurrences that ended before <code>now</code> and extends the horizon to
+     * <code>now</code> plus its length.
+     *
+     * @param now
+     */
+    public synchronized void advance(long now) {
+        now = VAction.getSecond(now);
+        if (now <= start) {
+            return;
+        }
+        occurrences = occurrences.slice(now, Long.MAX_VALUE);
+        start = now;
+        extend(now + length);
+    }
+
+    private void extend(final long limit) {
+        while (end < limit) {
+            long occurrence;
+            if (hasPending) {
+                occurrence = pending;
+                hasPending = false;
+            } else if (cursor.hasNext()) {
+                occurrence = cursor.next();
+            } else {
+                end = Long.MAX_VALUE;
+                return;
+            }
+            if (occurrence >= limit) {
+                pending = occurrence;
+                hasPending = true;
+                end = limit;
+                return;
+            }
+            if (!action.isExcluded(occurrence)) {
+                occurrences.add(occurrence, occurrence + occurrenceLength);
+            }
+            end = occurrence + 1;
+        }
+    }
+
+    /**
+     * Returns the occurrences overlapping a window, or null if the window starts before the
+     * horizon or reaches more than one horizon length past it.
+     *
+     * @param windowStart
+     * @param windowEnd
+     * @param now
+     * @return
+     */
+    synchronized OccurrenceSet get(final long windowStart, final long windowEnd, final long now) {
+        if (now - start > length / 4) {
+            advance(now);
+        }
+        if (windowStart < start) {
+            return null;
+        }
+        if (windowEnd > end) {
+            if (windowEnd - start > 2 * length) {
+                return null;
+            }
+            extend(windowEnd);
+        }
+        return occurrences.slice(windowStart, windowEnd);
+    }
+
+    /**
+     * Returns the end of the materialized occurrences.
+     *
+     * @return
+     */
+    public synchronized long getEnd() {
+        return end;
+    }
+
+    /**
+     * Returns the length of the horizon in milliseconds.
+     *
+     * @return
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the start of the window the horizon can answer.
+     *
+     * @return
+     */
+    public synchronized long getStart() {
+        return start;
+    }
+
+    /**
+     * Returns the number of materialized occurrences.
+     *
+     * @return
+     */
+    public synchronized int size() {
+        return occurrences.size();
+    }
+}
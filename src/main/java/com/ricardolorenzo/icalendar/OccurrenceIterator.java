@@ -0,0 +1,152 @@
+/*
+ * OccurrenceIterator class
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ *
+ * Author: Ricardo Lorenzo <unshakablespirit@gmail.com>
+ */
+package com.ricardolorenzo.icalendar;
+
+import java.util.Calendar;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Generates the occurrences of a <code>VAction</code> on demand and in chronological order,
+ * honoring RRULE, EXDATE, UNTIL, COUNT and the modified instances.
+ *
+ * @author Ricardo_Lorenzo
+ *
+ */
+public class OccurrenceIterator implements Iterator<Period> {
+    private final VAction action;
+    private final RecurrenceCursor cursor;
+    private final long start;
+    private final long end;
+    private final long length;
+    private final OccurrenceSet overrides;
+    private int override;
+    private long next;
+    private long nextEnd;
+    private boolean nextOverride;
+    private boolean hasNext;
+    private long pending;
+    private boolean hasPending;
+
+    OccurrenceIterator(final VAction action, final long start, final long end) {
+        this.action = action;
+        this.start = VAction.getSecond(start);
+        this.end = end;
+        this.length = action.getOccurrenceLength();
+        this.overrides = action.getOverrideOccurrences(this.start, end);
+
+        RecurrenceEngine engine = action.getRecurrenceEngine();
+        if (engine == null) {
+            long dateStart = VAction.getSecond(action.dtstart);
+            this.cursor = null;
+            this.pending = dateStart;
+            this.hasPending = VAction.overlaps(dateStart, this.length, this.start, end)
+                    && !action.isExcluded(dateStart);
+        } else {
+            this.cursor = engine.getCursor(this.start - this.length, end);
+        }
+    }
+
+    /**
+     * Finds the next occurrence of the rule, then merges it with the modified instances, which are
+     * already sorted.
+     */
+    private void fill() {
+        while (!this.hasPending && this.cursor != null && this.cursor.hasNext()) {
+            long occurrence = this.cursor.next();
+            if (VAction.overlaps(occurrence, this.length, this.start, this.end)
+                    && !this.action.isExcluded(occurrence)) {
+                this.pending = occurrence;
+                this.hasPending = true;
+            }
+        }
+        if (this.hasNext) {
+            return;
+        }
+        if (this.override < this.overrides.size()
+                && (!this.hasPending || this.overrides.getStart(this.override) < this.pending)) {
+            this.next = this.overrides.getStart(this.override);
+            this.nextEnd = this.overrides.getEnd(this.override);
+            this.nextOverride = true;
+            this.override++;
+            this.hasNext = true;
+        } else if (this.hasPending) {
+            this.next = this.pending;
+            this.nextEnd = this.pending + this.length;
+            this.nextOverride = false;
+            this.hasPending = false;
+            this.hasNext = true;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        fill();
+        return this.hasNext;
+    }
+
+    @Override
+    public Period next() {
+        fill();
+        if (!this.hasNext) {
+            throw new NoSuchElementException();
+        }
+        this.hasNext = false;
+        Calendar periodStart = Calendar.getInstance();
+        periodStart.setTimeInMillis(this.next);
+        Calendar periodEnd = Calendar.getInstance();
+        periodEnd.setTimeInMillis(this.nextEnd);
+        return new Period(periodStart, periodEnd);
+    }
+
+    /**
+     * Returns the start of the next occurrence without consuming it. Call only after
+     * <code>hasNext</code> returned true.
+     */
+    long peekStart() {
+        return this.next;
+    }
+
+    /**
+     * Returns the end of the next occurrence without consuming it. Call only after
+     * <code>hasNext</code> returned true.
+     */
+    long peekEnd() {
+        return this.nextEnd;
+    }
+
+    /**
+     * Returns true if the next occurrence comes from a modified instance. Call only after
+     * <code>hasNext</code> returned true.
+     */
+    boolean peekOverride() {
+        return this.nextOverride;
+    }
+
+    /**
+     * Consumes the next occurrence without creating a <code>Period</code>.
+     */
+    void skip() {
+        fill();
+        this.hasNext = false;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
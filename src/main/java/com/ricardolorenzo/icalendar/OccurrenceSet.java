@@ -0,0 +1,338 @@
+/*
+ * OccurrenceSet class
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ *
+ * Author: Ricardo Lorenzo <unshakablespirit@gmail.com>
+ */
+package com.ricardolorenzo.icalendar;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * Sorted set of occurrences stored as parallel <code>long</code> arrays of start and end
+ * milliseconds. Occurrences are ordered by start and then by end, and identical pairs are kept
+ * once, except in the occurrences of a component, where a modified instance can be moved onto an
+ * occurrence of the rule.
+ *
+ * @author Ricardo_Lorenzo
+ *
+ */
+public class OccurrenceSet implements Serializable {
+    public static final long serialVersionUID = 89472947947291872L;
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private long[] starts;
+    private long[] ends;
+    private int size;
+    private long maxLength;
+    private boolean truncated;
+
+    public OccurrenceSet() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public OccurrenceSet(final int capacity) {
+        starts = new long[Math.max(capacity, 1)];
+        ends = new long[Math.max(capacity, 1)];
+        size = 0;
+        maxLength = 0;
+    }
+
+    public OccurrenceSet(final OccurrenceSet occurrences) {
+        starts = Arrays.copyOf(occurrences.starts, Math.max(occurrences.size, 1));
+        ends = Arrays.copyOf(occurrences.ends, Math.max(occurrences.size, 1));
+        size = occurrences.size;
+        maxLength = occurrences.maxLength;
+        truncated = occurrences.truncated;
+    }
+
+    /**
+     * Adds an occurrence. Appending in chronological order costs O(1); out of order occurrences are
+     * inserted at their position.
+     *
+     * @param start
+     * @param end
+     */
+    public void add(final long start, final long end) {
+        int index = size;
+        if (size > 0 && compare(start, end, size - 1) <= 0) {
+            index = getInsertIndex(start, end);
+            if (index < size && starts[index] == start && ends[index] == end) {
+                return;
+            }
+        }
+
+        if (size == starts.length) {
+            int capacity = starts.length * 2;
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+        }
+        if (index < size) {
+            System.arraycopy(starts, index, starts, index + 1, size - index);
+            System.arraycopy(ends, index, ends, index + 1, size - index);
+        }
+        starts[index] = start;
+        ends[index] = end;
+        maxLength = Math.max(maxLength, end - start);
+        size++;
+    }
+
+    public void add(final Period p) {
+        add(p.getStart().getTimeInMillis(), p.getEnd().getTimeInMillis());
+    }
+
+    private int compare(final long start, final long end, final int index) {
+        if (start != starts[index]) {
+            return start < starts[index] ? -1 : 1;
+        }
+        if (end != ends[index]) {
+            return end < ends[index] ? -1 : 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Returns true if <code>instant</code> falls inside any occurrence.
+     *
+     * @param instant
+     * @return
+     */
+    public boolean contains(final long instant) {
+        for (int i = getFirstIndex(instant - maxLength); i < size && starts[i] <= instant; i++) {
+            if (ends[i] > instant || starts[i] == instant) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public long getEnd(final int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        return ends[index];
+    }
+
+    /**
+     * Returns a copy of the end milliseconds, in the order of the occurrences.
+     *
+     * @return
+     */
+    public long[] getEnds() {
+        return Arrays.copyOf(ends, size);
+    }
+
+    /**
+     * Returns the index of the first occurrence starting at or after <code>start</code>, or
+     * <code>size()</code> if there is none.
+     *
+     * @param start
+     * @return
+     */
+    public int getFirstIndex(final long start) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (starts[middle] < start) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int getInsertIndex(final long start, final long end) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compare(start, end, middle) > 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the length of the longest occurrence in milliseconds.
+     *
+     * @return
+     */
+    public long getMaxLength() {
+        return maxLength;
+    }
+
+    public Period getPeriod(final int index) {
+        Calendar start = Calendar.getInstance();
+        start.setTimeInMillis(getStart(index));
+        Calendar end = Calendar.getInstance();
+        end.setTimeInMillis(getEnd(index));
+        return new Period(start, end);
+    }
+
+    /**
+     * Returns the occurrences as <code>Period</code> objects in chronological order.
+     *
+     * @return
+     */
+    public List<Period> getPeriods() {
+        List<Period> periods = new ArrayList<Period>(size);
+        for (int i = 0; i < size; i++) {
+            periods.add(getPeriod(i));
+        }
+        return periods;
+    }
+
+    public long getStart(final int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        return starts[index];
+    }
+
+    /**
+     * Returns a copy of the start milliseconds in chronological order.
+     *
+     * @return
+     */
+    public long[] getStarts() {
+        return Arrays.copyOf(starts, size);
+    }
+
+    /**
+     * Returns the index of the occurrence starting at <code>start</code>, or -1 if there is none.
+     *
+     * @param start
+     * @return
+     */
+    public int indexOf(final long start) {
+        int index = getFirstIndex(start);
+        if (index < size && starts[index] == start) {
+            return index;
+        }
+        return -1;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns true if the expansion stopped at its <code>ExpansionBudget</code>, so occurrences may
+     * be missing from the end of the window.
+     *
+     * @return
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    void setTruncated(final boolean truncated) {
+        this.truncated = truncated;
+    }
+
+    /**
+     * Keeps the first <code>count</code> occurrences and marks the set as truncated if any were
+     * dropped.
+     */
+    void truncate(final int count) {
+        if (size > count) {
+            size = count;
+            truncated = true;
+        }
+    }
+
+    /**
+     * Returns a new set with the occurrences of this set and <code>other</code>, merged in linear
+     * time.
+     *
+     * @param other
+     * @return
+     */
+    public OccurrenceSet merge(final OccurrenceSet other) {
+        return merge(other, true);
+    }
+
+    /**
+     * Returns a new set with the occurrences of this set and <code>other</code>, merged in linear
+     * time. Unless <code>distinct</code> is true, an occurrence found in both sets is kept twice,
+     * as when a modified instance is moved onto an occurrence of the rule.
+     */
+    OccurrenceSet merge(final OccurrenceSet other, final boolean distinct) {
+        OccurrenceSet merged = new OccurrenceSet(size + other.size);
+        merged.truncated = truncated || other.truncated;
+        int i = 0;
+        int j = 0;
+        while (i < size || j < other.size) {
+            if (j >= other.size || (i < size && other.compare(starts[i], ends[i], j) <= 0)) {
+                merged.append(starts[i], ends[i], distinct);
+                i++;
+            } else {
+                merged.append(other.starts[j], other.ends[j], distinct);
+                j++;
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Appends an occurrence known to sort after the existing ones, skipping a duplicate of the last
+     * one if <code>distinct</code> is true.
+     */
+    private void append(final long start, final long end, final boolean distinct) {
+        if (distinct && size > 0 && starts[size - 1] == start && ends[size - 1] == end) {
+            return;
+        }
+        starts[size] = start;
+        ends[size] = end;
+        maxLength = Math.max(maxLength, end - start);
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns a new set with the occurrences overlapping the window between <code>start</code> and
+     * <code>end</code>. Occurrences without length overlap the window they start in.
+     *
+     * @param start
+     * @param end
+     * @return
+     */
+    public OccurrenceSet slice(final long start, final long end) {
+        int from = getFirstIndex(start - maxLength);
+        int to = getFirstIndex(end);
+        OccurrenceSet slice = new OccurrenceSet(Math.max(to - from, 1));
+        slice.truncated = truncated;
+        for (int i = from; i < to; i++) {
+            if (ends[i] > start || starts[i] >= start) {
+                slice.append(starts[i], ends[i], false);
+            }
+        }
+        return slice;
+    }
+
+    public OccurrenceSet slice(final Period period) {
+        return slice(period.getStart().getTimeInMillis(), period.getEnd().getTimeInMillis());
+    }
+}
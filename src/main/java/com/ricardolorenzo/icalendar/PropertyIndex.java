@@ -0,0 +1,189 @@
+/*
+ * PropertyIndex class
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ *
+ * Author: Ricardo Lorenzo <unshakablespirit@gmail.com>
+ */
+package com.ricardolorenzo.icalendar;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of components by their CATEGORIES, STATUS, ORGANIZER and ATTENDEE values.
+ *
+ * Every component gets a dense number, reused after removals, and every value maps to a
+ * <code>BitSet</code> of the numbers of the components that have it, so the conditions of a
+ * <code>ComponentFilter</code> are intersected a word at a time.
+ *
+ * The index is not synchronized.
+ *
+ * @author Ricardo_Lorenzo
+ *
+ */
+class PropertyIndex<T extends VAction> implements ComponentIndex<T> {
+    private static final String CATEGORY = "c:";
+    private static final String STATUS = "s:";
+    private static final String ORGANIZER = "o:";
+    private static final String ATTENDEE = "a:";
+
+    private final List<T> components;
+    private final List<String[]> keys;
+    private final Map<T, Integer> ids;
+    private final BitSet used;
+    private final Map<String, BitSet> values;
+
+    PropertyIndex() {
+        this.components = new ArrayList<T>();
+        this.keys = new ArrayList<String[]>();
+        this.ids = new IdentityHashMap<T, Integer>();
+        this.used = new BitSet();
+        this.values = new HashMap<String, BitSet>();
+    }
+
+    PropertyIndex(final Collection<T> components) {
+        this();
+        for (T component : components) {
+            add(component);
+        }
+    }
+
+    private static String getKey(final String type, String value) {
+        value = value.trim().toLowerCase(Locale.ENGLISH);
+        if ((ORGANIZER.equals(type) || ATTENDEE.equals(type)) && value.startsWith("mailto:")) {
+            value = value.substring(7);
+        }
+        return type.concat(value);
+    }
+
+    private static String[] getKeys(final VAction component) {
+        Set<String> keys = new LinkedHashSet<String>();
+        for (String category : component.categories) {
+            if (category != null) {
+                keys.add(getKey(CATEGORY, category));
+            }
+        }
+        if (component.status != null) {
+            keys.add(getKey(STATUS, component.status));
+        }
+        for (String mail : component.organizer.keySet()) {
+            if (mail != null) {
+                keys.add(getKey(ORGANIZER, mail));
+            }
+        }
+        for (String mail : component.attendee.keySet()) {
+            if (mail != null) {
+                keys.add(getKey(ATTENDEE, mail));
+            }
+        }
+        return keys.toArray(new String[keys.size()]);
+    }
+
+    /**
+     * Adds a component with its current values, replacing the values indexed for it before.
+     */
+    @Override
+    public void add(final T component) {
+        remove(component);
+        int id = used.nextClearBit(0);
+        String[] componentKeys = getKeys(component);
+        if (id == components.size()) {
+            components.add(component);
+            keys.add(componentKeys);
+        } else {
+            components.set(id, component);
+            keys.set(id, componentKeys);
+        }
+        used.set(id);
+        ids.put(component, id);
+        for (String key : componentKeys) {
+            BitSet bits = values.get(key);
+            if (bits == null) {
+                bits = new BitSet();
+                values.put(key, bits);
+            }
+            bits.set(id);
+        }
+    }
+
+    @Override
+    public boolean remove(final T component) {
+        Integer id = ids.remove(component);
+        if (id == null) {
+            return false;
+        }
+        for (String key : keys.get(id)) {
+            BitSet bits = values.get(key);
+            bits.clear(id);
+            if (bits.isEmpty()) {
+                values.remove(key);
+            }
+        }
+        components.set(id, null);
+        keys.set(id, null);
+        used.clear(id);
+        return true;
+    }
+
+    /**
+     * Returns the components matching every condition of the filter.
+     */
+    List<T> get(final ComponentFilter filter) {
+        List<String> conditions = new ArrayList<String>();
+        for (String category : filter.getCategories()) {
+            conditions.add(getKey(CATEGORY, category));
+        }
+        if (filter.getStatus() != null) {
+            conditions.add(getKey(STATUS, filter.getStatus()));
+        }
+        for (String mail : filter.getOrganizers()) {
+            conditions.add(getKey(ORGANIZER, mail));
+        }
+        for (String mail : filter.getAttendees()) {
+            conditions.add(getKey(ATTENDEE, mail));
+        }
+
+        BitSet matches = null;
+        for (String condition : conditions) {
+            BitSet bits = values.get(condition);
+            if (bits == null) {
+                return new ArrayList<T>();
+            } else if (matches == null) {
+                matches = (BitSet) bits.clone();
+            } else {
+                matches.and(bits);
+            }
+        }
+        if (matches == null) {
+            matches = used;
+        }
+
+        List<T> result = new ArrayList<T>(matches.cardinality());
+        for (int id = matches.nextSetBit(0); id >= 0; id = matches.nextSetBit(id + 1)) {
+            result.add(components.get(id));
+        }
+        return result;
+    }
+
+    int size() {
+        return ids.size();
+    }
+}
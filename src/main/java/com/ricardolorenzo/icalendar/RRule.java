@@ -30,6 +30,7 @@ public class RRule implements Serializable {
     public static final long serialVersionUID = 89472947947291231L;
 
     private Calendar until;
+    private boolean untilDate;
     private String freq;
     private int count;
     private int interval;
@@ -41,6 +42,7 @@ public class RRule implements Serializable {
     private List<Integer> bymonthday;
     private List<Integer> byyearday;
     private List<Integer> byweekno;
+    private transient int modifications;
 
     public RRule() {
         count = 0;
@@ -58,6 +60,16 @@ public class RRule implements Serializable {
             throw new VCalendarException("invlaid frequency");
         }
         this.freq = freq;
+        modifications++;
+    }
+
+    /**
+     * Returns the number of changes made through the setters, so components using the rule can
+     * tell when the occurrences they keep are stale. Lists returned by the getters must be set
+     * again to count as a change.
+     */
+    int getModifications() {
+        return modifications;
     }
 
     public Calendar getUntil() {
@@ -71,9 +83,36 @@ public class RRule implements Serializable {
         return false;
     }
 
+    /**
+     * Returns true if UNTIL is a DATE, which includes the whole day, rather than a DATE-TIME.
+     * 
+     * @return
+     */
+    public boolean isUntilDate() {
+        return untilDate;
+    }
+
+    /**
+     * Sets UNTIL as a DATE-TIME, the start of the last occurrence allowed.
+     * 
+     * @param until
+     */
     public void setUntil(final Calendar until) {
         until.set(Calendar.MILLISECOND, 0);
         this.until = until;
+        this.untilDate = false;
+        modifications++;
+    }
+
+    /**
+     * Sets UNTIL as a DATE, so occurrences on any time of that day are allowed.
+     * 
+     * @param until
+     */
+    public void setUntilDate(final Calendar until) {
+        setUntil(until);
+        this.untilDate = true;
+        modifications++;
     }
 
     public int getCount() {
@@ -89,6 +128,7 @@ public class RRule implements Serializable {
 
     public void setCount(final int count) {
         this.count = count;
+        modifications++;
     }
 
     public int getInterval() {
@@ -104,6 +144,7 @@ public class RRule implements Serializable {
 
     public void setInterval(final int interval) {
         this.interval = interval;
+        modifications++;
     }
 
     public String getWeekStart() {
@@ -122,6 +163,7 @@ public class RRule implements Serializable {
             throw new VCalendarException("invalid weekend start");
         }
         this.wkst = wkst;
+        modifications++;
     }
 
     public List<Integer> getByMinute() {
@@ -137,6 +179,7 @@ public class RRule implements Serializable {
 
     public void setByMinute(final List<Integer> byminute) {
         this.byminute = byminute;
+        modifications++;
     }
 
     public List<Integer> getByHour() {
@@ -152,6 +195,7 @@ public class RRule implements Serializable {
 
     public void setByHour(final List<Integer> byhour) {
         this.byhour = byhour;
+        modifications++;
     }
 
     public List<String> getByDay() {
@@ -191,6 +235,7 @@ public class RRule implements Serializable {
             }
         }
         this.byday = byday;
+        modifications++;
     }
 
     public List<Integer> getByMonth() {
@@ -206,6 +251,7 @@ public class RRule implements Serializable {
 
     public void setByMonth(final List<Integer> bymonth) {
         this.bymonth = bymonth;
+        modifications++;
     }
 
     public List<Integer> getByMonthDay() {
@@ -221,6 +267,7 @@ public class RRule implements Serializable {
 
     public void setByMonthDay(final List<Integer> bymonthday) {
         this.bymonthday = bymonthday;
+        modifications++;
     }
 
     public List<Integer> getByYearDay() {
@@ -236,6 +283,7 @@ public class RRule implements Serializable {
 
     public void setByYearDay(final List<Integer> byyearday) {
         this.byyearday = byyearday;
+        modifications++;
     }
 
     public List<Integer> getByWeekNo() {
@@ -251,6 +299,7 @@ public class RRule implements Serializable {
 
     public void setByWeekNo(final List<Integer> byweekno) {
         this.byweekno = byweekno;
+        modifications++;
     }
 
     @Override
@@ -261,7 +310,12 @@ public class RRule implements Serializable {
         if (hasUntil()) {
             sb.append(";");
             sb.append("UNTIL=");
-            sb.append(DateTime.getUTCTime(until));
+            if (untilDate) {
+                sb.append(String.format("%04d%02d%02d", until.get(Calendar.YEAR), until.get(Calendar.MONTH) + 1,
+                        until.get(Calendar.DAY_OF_MONTH)));
+            } else {
+                sb.append(DateTime.getUTCTime(until));
+            }
         }
         if (hasCount()) {
             sb.append(";");
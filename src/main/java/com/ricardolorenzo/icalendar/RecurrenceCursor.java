@@ -0,0 +1,425 @@
+/*
+ * RecurrenceCursor class
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ *
+ * Author: Ricardo Lorenzo <unshakablespirit@gmail.com>
+ */
+package com.ricardolorenzo.icalendar;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Walks the occurrences of a <code>RecurrenceEngine</code> in chronological order as primitive
+ * start milliseconds. The candidates of one interval are produced at a time into a reused buffer.
+ *
+ * @author Ricardo_Lorenzo
+ *
+ */
+public class RecurrenceCursor {
+    private static final long MAX_OFFSET = 18 * 60 * 60 * 1000L;
+
+    private final RecurrenceEngine engine;
+    private final long from;
+    private final long to;
+    private long interval;
+    private long[] candidates;
+    private int size;
+    private int position;
+    private boolean sorted;
+    private long emitted;
+    private long last;
+    private long lastFound;
+    private boolean started;
+    private boolean finished;
+    private boolean hasValue;
+    private long value;
+    private long limit;
+    private long iterations;
+    private boolean truncated;
+
+    private long day;
+    private int year;
+    private int month;
+    private int dayOfMonth;
+    private int dayOfYear;
+    private int weekday;
+    private int monthLength;
+    private int yearLength;
+
+    RecurrenceCursor(final RecurrenceEngine engine, final long from, final long to) {
+        this(engine, from, to, new long[Math.max(engine.times.length, 16)]);
+    }
+
+    /**
+     * Creates a cursor that keeps its candidates in <code>buffer</code>, so a caller expanding
+     * many rules can reuse one buffer.
+     */
+    RecurrenceCursor(final RecurrenceEngine engine, final long from, final long to, final long[] buffer) {
+        this.engine = engine;
+        this.from = from;
+        this.to = to;
+        this.candidates = buffer;
+        this.limit = Long.MAX_VALUE;
+        this.last = Long.MIN_VALUE;
+
+        if (from > engine.dtstart && (engine.count == 0 || engine.simple)) {
+            this.interval = engine.getIntervalIndex(from);
+        }
+        if (this.interval > 0) {
+            /*
+             * Every skipped interval of a simple rule holds exactly one occurrence.
+             */
+            this.emitted = this.interval;
+            this.started = true;
+        }
+        if (engine.frequency == Frequency.MINUTELY || engine.frequency == Frequency.HOURLY) {
+            this.lastFound = engine.dtstart + (this.interval * engine.getStep());
+        } else {
+            this.lastFound = Long.MIN_VALUE;
+        }
+    }
+
+    private void add(final long candidate) {
+        if (size == candidates.length) {
+            candidates = Arrays.copyOf(candidates, size * 2);
+        }
+        if (size > 0 && candidate < candidates[size - 1]) {
+            sorted = false;
+        }
+        candidates[size++] = candidate;
+    }
+
+    /**
+     * Returns true if the cursor stopped because it examined more intervals than its limit.
+     */
+    boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Stops the cursor after examining <code>limit</code> intervals of the frequency.
+     */
+    void setLimit(final long limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Returns the candidate buffer, which may have grown since the cursor was created.
+     */
+    long[] getBuffer() {
+        return candidates;
+    }
+
+    private void advance() {
+        while (!hasValue && !finished) {
+            if (!started) {
+                started = true;
+                /*
+                 * DTSTART is always the first occurrence, even when it does not match the rule.
+                 */
+                emit(engine.dtstart);
+            } else if (position < size) {
+                emit(candidates[position++]);
+            } else if (++iterations > limit) {
+                truncated = true;
+                finished = true;
+            } else {
+                size = 0;
+                position = 0;
+                sorted = true;
+                fill();
+                if (!sorted) {
+                    /*
+                     * Local times can resolve to earlier instants around DST changes.
+                     */
+                    Arrays.sort(candidates, 0, size);
+                }
+            }
+        }
+    }
+
+    private void emit(final long candidate) {
+        if (candidate <= last) {
+            return;
+        }
+        last = candidate;
+        if (candidate >= engine.until || candidate >= to) {
+            finished = true;
+            return;
+        }
+        if (engine.count > 0 && emitted >= engine.count) {
+            finished = true;
+            return;
+        }
+        emitted++;
+        if (candidate >= from) {
+            hasValue = true;
+            value = candidate;
+        }
+    }
+
+    /**
+     * Produces the candidates of the next interval, or marks the cursor as finished once no
+     * interval can produce an occurrence before the limits.
+     */
+    private void fill() {
+        long limit = Math.min(to, engine.until);
+        if (engine.frequency == Frequency.MINUTELY || engine.frequency == Frequency.HOURLY) {
+            fillTime(limit);
+            return;
+        }
+
+        long first;
+        switch (engine.frequency) {
+        case DAILY:
+            first = engine.startDay + (interval * engine.interval);
+            break;
+        case WEEKLY:
+            first = engine.getWeekStart(engine.startDay) + (7 * interval * engine.interval);
+            break;
+        case MONTHLY:
+            long months = (engine.startMonth - 1) + (interval * engine.interval);
+            first = RecurrenceEngine.getEpochDay(engine.startYear + Math.floorDiv(months, 12L),
+                    (int) Math.floorMod(months, 12L) + 1, 1);
+            break;
+        default:
+            first = RecurrenceEngine.getEpochDay(engine.startYear + (interval * engine.interval), 1, 1);
+        }
+
+        if ((first * RecurrenceEngine.SECONDS_PER_DAY * 1000L) - MAX_OFFSET >= limit) {
+            finished = true;
+            return;
+        }
+        if (lastFound == Long.MIN_VALUE) {
+            lastFound = first;
+        } else if (first - lastFound > RecurrenceEngine.DAYS_PER_CYCLE) {
+            /*
+             * The calendar repeats every 400 years, so a rule that matched nothing in that span
+             * never will.
+             */
+            finished = true;
+            return;
+        }
+
+        switch (engine.frequency) {
+        case DAILY:
+            fillDays(first, first + 1);
+            break;
+        case WEEKLY:
+            fillDays(first, first + 7);
+            break;
+        case MONTHLY:
+            setDay(first);
+            if (engine.monthMask == 0 || (engine.monthMask & (1 << month)) != 0) {
+                fillDays(first, first + monthLength);
+            }
+            break;
+        default:
+            setDay(first);
+            int y = year;
+            for (int m = 1; m <= 12; m++) {
+                int length = RecurrenceEngine.getMonthLength(y, m);
+                if (engine.monthMask == 0 || (engine.monthMask & (1 << m)) != 0) {
+                    long monthStart = RecurrenceEngine.getEpochDay(y, m, 1);
+                    fillDays(monthStart, monthStart + length);
+                }
+            }
+        }
+        interval++;
+    }
+
+    private void fillDays(final long first, final long end) {
+        for (long d = first; d < end; d++) {
+            setDay(d);
+            if (!matchesDay()) {
+                continue;
+            }
+            lastFound = d;
+            for (int time : engine.times) {
+                add(engine.getInstant(d, time));
+            }
+        }
+    }
+
+    /**
+     * Steps MINUTELY and HOURLY rules in elapsed time, jumping over whole days or hours that the
+     * BY* parts exclude.
+     */
+    private void fillTime(final long limit) {
+        final long step = engine.getStep();
+        long instant = engine.dtstart + (interval * step);
+        if (instant - (60 * 60 * 1000L) >= limit) {
+            finished = true;
+            return;
+        }
+        if (instant - lastFound > RecurrenceEngine.DAYS_PER_CYCLE * RecurrenceEngine.SECONDS_PER_DAY * 1000L) {
+            finished = true;
+            return;
+        }
+
+        long localSeconds = engine.getLocalSeconds(instant);
+        int second = (int) Math.floorMod(localSeconds, (long) RecurrenceEngine.SECONDS_PER_DAY);
+        setDay(Math.floorDiv(localSeconds, RecurrenceEngine.SECONDS_PER_DAY));
+        if (!matchesDay()) {
+            long nextDay = instant + ((RecurrenceEngine.SECONDS_PER_DAY - second) * 1000L);
+            interval = Math.max(interval + 1, getInterval(nextDay));
+            return;
+        }
+        if (engine.hourMask != 0 && (engine.hourMask & (1 << (second / 3600))) == 0) {
+            interval = Math.max(interval + 1, getInterval(instant + ((3600 - (second % 3600)) * 1000L)));
+            return;
+        }
+
+        if (engine.frequency == Frequency.HOURLY) {
+            long hour = instant - ((second % 3600) * 1000L);
+            for (int minute : engine.minutes) {
+                add(hour + (((minute * 60) + (engine.startSecond % 60)) * 1000L));
+            }
+            lastFound = instant;
+        } else if (engine.minuteMask == 0 || (engine.minuteMask & (1L << ((second / 60) % 60))) != 0) {
+            add(instant);
+            lastFound = instant;
+        }
+        interval++;
+    }
+
+    /**
+     * Returns the first MINUTELY or HOURLY interval starting at or after <code>instant</code>.
+     */
+    private long getInterval(final long instant) {
+        long step = engine.getStep();
+        return Math.floorDiv(instant - engine.dtstart + step - 1, step);
+    }
+
+    /**
+     * Returns true if there is another occurrence.
+     *
+     * @return
+     */
+    public boolean hasNext() {
+        advance();
+        return hasValue;
+    }
+
+    /**
+     * Applies the day level BY* parts, and the DTSTART defaults when the rule has none.
+     */
+    private boolean matchesDay() {
+        if (engine.monthMask != 0 && (engine.monthMask & (1 << month)) == 0) {
+            return false;
+        }
+        if ((engine.weekNoMask != 0 || engine.negativeWeekNoMask != 0) && !matchesWeekNo()) {
+            return false;
+        }
+        if (engine.yearDayMask != null && !RecurrenceEngine.isSet(engine.yearDayMask, dayOfYear)
+                && !RecurrenceEngine.isSet(engine.negativeYearDayMask, yearLength - dayOfYear + 1)) {
+            return false;
+        }
+        if ((engine.monthDayMask != 0 || engine.negativeMonthDayMask != 0)
+                && (engine.monthDayMask & (1L << dayOfMonth)) == 0
+                && (engine.negativeMonthDayMask & (1L << (monthLength - dayOfMonth + 1))) == 0) {
+            return false;
+        }
+        if (engine.byDay && !matchesWeekday()) {
+            return false;
+        }
+
+        if (engine.defaultDay) {
+            switch (engine.frequency) {
+            case WEEKLY:
+                return weekday == engine.startWeekday;
+            case MONTHLY:
+                return dayOfMonth == engine.startDayOfMonth;
+            case YEARLY:
+                return dayOfMonth == engine.startDayOfMonth && (engine.monthMask != 0 || month == engine.startMonth);
+            default:
+                return true;
+            }
+        } else if (engine.yearDayMask == null && engine.monthDayMask == 0 && engine.negativeMonthDayMask == 0
+                && !engine.byDay) {
+            /*
+             * BYWEEKNO alone keeps the weekday of DTSTART.
+             */
+            return weekday == engine.startWeekday;
+        }
+        return true;
+    }
+
+    private boolean matchesWeekday() {
+        if ((engine.weekdayMask & (1 << weekday)) != 0) {
+            return true;
+        }
+        /*
+         * Ordinals count within the month for MONTHLY rules and for YEARLY rules with BYMONTH,
+         * and within the year otherwise.
+         */
+        int position;
+        int length;
+        if (engine.frequency == Frequency.MONTHLY || engine.monthMask != 0) {
+            position = dayOfMonth;
+            length = monthLength;
+        } else {
+            position = dayOfYear;
+            length = yearLength;
+        }
+        return (engine.ordinalMask[weekday] & (1L << (((position - 1) / 7) + 1))) != 0
+                || (engine.negativeOrdinalMask[weekday] & (1L << (((length - position) / 7) + 1))) != 0;
+    }
+
+    private boolean matchesWeekNo() {
+        long firstWeekDay = engine.getFirstWeekDay(year);
+        long nextFirstWeekDay = engine.getFirstWeekDay(year + 1);
+        long weekNo;
+        long weeks;
+        if (day < firstWeekDay) {
+            long previous = engine.getFirstWeekDay(year - 1);
+            weekNo = ((day - previous) / 7) + 1;
+            weeks = (firstWeekDay - previous) / 7;
+        } else if (day >= nextFirstWeekDay) {
+            weekNo = 1;
+            weeks = (engine.getFirstWeekDay(year + 2) - nextFirstWeekDay) / 7;
+        } else {
+            weekNo = ((day - firstWeekDay) / 7) + 1;
+            weeks = (nextFirstWeekDay - firstWeekDay) / 7;
+        }
+        return (engine.weekNoMask & (1L << weekNo)) != 0
+                || (engine.negativeWeekNoMask & (1L << (weeks - weekNo + 1))) != 0;
+    }
+
+    /**
+     * Returns the start of the next occurrence in milliseconds.
+     *
+     * @return
+     */
+    public long next() {
+        advance();
+        if (!hasValue) {
+            throw new NoSuchElementException();
+        }
+        hasValue = false;
+        return value;
+    }
+
+    private void setDay(final long epochDay) {
+        int[] date = RecurrenceEngine.getDate(epochDay);
+        day = epochDay;
+        year = date[0];
+        month = date[1];
+        dayOfMonth = date[2];
+        weekday = RecurrenceEngine.getWeekday(epochDay);
+        monthLength = RecurrenceEngine.getMonthLength(year, month);
+        yearLength = RecurrenceEngine.isLeapYear(year) ? 366 : 365;
+        dayOfYear = (int) (epochDay - RecurrenceEngine.getEpochDay(year, 1, 1)) + 1;
+    }
+}
@@ -0,0 +1,463 @@
+/*
+ * RecurrenceEngine class
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ *
+ * Author: Ricardo Lorenzo <unshakablespirit@gmail.com>
+ */
+package com.ricardolorenzo.icalendar;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * RFC 5545 recurrence expansion built on epoch-day arithmetic and <code>java.time</code> zone
+ * rules.
+ *
+ * Each interval of the frequency is expanded into the days it contains, which are then kept or
+ * dropped by the BY* parts following the expand/limit table of RFC 5545 section 3.3.10. Days and
+ * times missing from the rule are taken from DTSTART. Wall-clock times are converted to instants
+ * with the zone rules, so occurrences keep their local time across DST changes, and dates that do
+ * not exist in a month or year are skipped instead of clamped.
+ *
+ * The engine is immutable and can be shared between threads. Each <code>RecurrenceCursor</code>
+ * keeps its own position.
+ *
+ * @author Ricardo_Lorenzo
+ *
+ */
+public class RecurrenceEngine {
+    static final int SECONDS_PER_DAY = 86400;
+    static final long DAYS_PER_CYCLE = 146097L;
+    private static final String[] WEEK_DAYS = new String[] { "MO", "TU", "WE", "TH", "FR", "SA", "SU" };
+
+    final Frequency frequency;
+    final int interval;
+    final int count;
+    final long until;
+    final int weekStart;
+    final long dtstart;
+    final ZoneId zone;
+    final ZoneRules rules;
+    final long startDay;
+    final int startSecond;
+    final int startYear;
+    final int startMonth;
+    final int startDayOfMonth;
+    final int startWeekday;
+    /*
+     * Bit n is set for month n.
+     */
+    final int monthMask;
+    /*
+     * Bit n is set for the nth week, or for the nth week from the end in the negative mask.
+     */
+    final long weekNoMask;
+    final long negativeWeekNoMask;
+    /*
+     * Bit n is set for the nth day of the year, or the nth day from the end in the negative mask.
+     */
+    final long[] yearDayMask;
+    final long[] negativeYearDayMask;
+    /*
+     * Bit n is set for the nth day of the month, or the nth day from the end in the negative mask.
+     */
+    final long monthDayMask;
+    final long negativeMonthDayMask;
+    /*
+     * Bit n is set for weekday n, from 0 for Monday, when BYDAY lists it without an ordinal. For
+     * each weekday, the ordinal masks have bit n set for its nth occurrence, or the nth from the
+     * end, in the month or year.
+     */
+    final int weekdayMask;
+    final long[] ordinalMask;
+    final long[] negativeOrdinalMask;
+    final boolean byDay;
+    final int hourMask;
+    final long minuteMask;
+    final int[] times;
+    final int[] minutes;
+    final boolean defaultDay;
+    final boolean simple;
+
+    /**
+     * Compiles <code>rrule</code> for the occurrences starting at <code>dtstart</code>.
+     *
+     * @param rrule
+     * @param dtstart
+     * @param zone
+     * @throws VCalendarException
+     *             if the rule has no frequency
+     */
+    public RecurrenceEngine(final RRule rrule, final long dtstart, final ZoneId zone) throws VCalendarException {
+        if (rrule.getFrequency() == null) {
+            throw new VCalendarException("missing frequency");
+        }
+        this.frequency = Frequency.valueOf(rrule.getFrequency());
+        this.interval = Math.max(rrule.getInterval(), 1);
+        this.count = Math.max(rrule.getCount(), 0);
+        this.zone = zone;
+        this.rules = zone.getRules();
+        this.dtstart = VAction.getSecond(dtstart);
+
+        if (rrule.hasWeekStart()) {
+            this.weekStart = Arrays.asList(WEEK_DAYS).indexOf(rrule.getWeekStart());
+        } else {
+            this.weekStart = 0;
+        }
+
+        long localSeconds = getLocalSeconds(this.dtstart);
+        this.startDay = Math.floorDiv(localSeconds, SECONDS_PER_DAY);
+        this.startSecond = (int) Math.floorMod(localSeconds, SECONDS_PER_DAY);
+        int[] date = getDate(this.startDay);
+        this.startYear = date[0];
+        this.startMonth = date[1];
+        this.startDayOfMonth = date[2];
+        this.startWeekday = getWeekday(this.startDay);
+
+        if (rrule.hasUntil()) {
+            Calendar value = rrule.getUntil();
+            if (rrule.isUntilDate()) {
+                /*
+                 * A date UNTIL includes the whole day.
+                 */
+                this.until = value.getTimeInMillis() + (SECONDS_PER_DAY * 1000L);
+            } else {
+                this.until = value.getTimeInMillis() + 1000L;
+            }
+        } else {
+            this.until = Long.MAX_VALUE;
+        }
+
+        int[] months = getValues(rrule.getByMonth(), 1, 12, false);
+        this.monthMask = (int) getMask(months, false);
+        int[] weeks = frequency == Frequency.YEARLY ? getValues(rrule.getByWeekNo(), 1, 53, true) : null;
+        this.weekNoMask = getMask(weeks, false);
+        this.negativeWeekNoMask = getMask(weeks, true);
+        int[] yearDays = getValues(rrule.getByYearDay(), 1, 366, true);
+        if (yearDays != null) {
+            this.yearDayMask = new long[6];
+            this.negativeYearDayMask = new long[6];
+            for (int day : yearDays) {
+                if (day > 0) {
+                    this.yearDayMask[day >>> 6] |= 1L << day;
+                } else {
+                    this.negativeYearDayMask[-day >>> 6] |= 1L << -day;
+                }
+            }
+        } else {
+            this.yearDayMask = null;
+            this.negativeYearDayMask = null;
+        }
+        int[] monthDays = getValues(rrule.getByMonthDay(), 1, 31, true);
+        this.monthDayMask = getMask(monthDays, false);
+        this.negativeMonthDayMask = getMask(monthDays, true);
+        int[] hours = getValues(rrule.getByHour(), 0, 23, false);
+        this.hourMask = (int) getMask(hours, false);
+        int[] byMinutes = getValues(rrule.getByMinute(), 0, 59, false);
+        this.minuteMask = getMask(byMinutes, false);
+
+        int weekdays = 0;
+        this.ordinalMask = new long[7];
+        this.negativeOrdinalMask = new long[7];
+        if (rrule.hasByDay()) {
+            for (String day : rrule.getByDay()) {
+                int weekday = Arrays.asList(WEEK_DAYS).indexOf(day.substring(day.length() - 2));
+                int ordinal = 0;
+                if (day.length() > 2 && (frequency == Frequency.MONTHLY || frequency == Frequency.YEARLY)) {
+                    ordinal = Integer.parseInt(day.substring(0, day.length() - 2));
+                }
+                if (weekday < 0 || Math.abs(ordinal) > 53) {
+                    continue;
+                } else if (ordinal > 0) {
+                    this.ordinalMask[weekday] |= 1L << ordinal;
+                } else if (ordinal < 0) {
+                    this.negativeOrdinalMask[weekday] |= 1L << -ordinal;
+                } else {
+                    weekdays |= 1 << weekday;
+                }
+            }
+        }
+        this.weekdayMask = weekdays;
+        boolean ordinals = false;
+        for (int i = 0; i < 7; i++) {
+            ordinals |= this.ordinalMask[i] != 0 || this.negativeOrdinalMask[i] != 0;
+        }
+        this.byDay = weekdays != 0 || ordinals;
+
+        this.defaultDay = weekNoMask == 0 && negativeWeekNoMask == 0 && yearDayMask == null && monthDayMask == 0
+                && negativeMonthDayMask == 0 && !byDay;
+
+        int second = startSecond % 60;
+        if (hours == null) {
+            hours = new int[] { startSecond / 3600 };
+        }
+        this.minutes = byMinutes != null ? byMinutes : new int[] { (startSecond / 60) % 60 };
+        this.times = new int[hours.length * minutes.length];
+        int i = 0;
+        for (int hour : hours) {
+            for (int minute : minutes) {
+                this.times[i++] = (hour * 3600) + (minute * 60) + second;
+            }
+        }
+
+        if (months != null || !defaultDay || hourMask != 0 || minuteMask != 0) {
+            this.simple = false;
+        } else if (frequency == Frequency.MONTHLY) {
+            this.simple = startDayOfMonth <= 28;
+        } else if (frequency == Frequency.YEARLY) {
+            this.simple = startMonth != 2 || startDayOfMonth != 29;
+        } else {
+            this.simple = true;
+        }
+    }
+
+    /**
+     * Returns the valid values of a BY* part in ascending order, or null if it has none.
+     */
+    private static int[] getValues(final List<Integer> values, final int min, final int max, final boolean negative) {
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+        TreeSet<Integer> valid = new TreeSet<Integer>();
+        for (Integer value : values) {
+            int abs = Math.abs(value);
+            if (value >= min && value <= max) {
+                valid.add(value);
+            } else if (negative && value < 0 && abs >= min && abs <= max) {
+                valid.add(value);
+            }
+        }
+        if (valid.isEmpty()) {
+            return null;
+        }
+        int[] result = new int[valid.size()];
+        int i = 0;
+        for (Integer value : valid) {
+            result[i++] = value;
+        }
+        return result;
+    }
+
+    private static long getMask(final int[] values, final boolean negative) {
+        long mask = 0;
+        if (values != null) {
+            for (int value : values) {
+                if (negative && value < 0) {
+                    mask |= 1L << -value;
+                } else if (!negative && value >= 0) {
+                    mask |= 1L << value;
+                }
+            }
+        }
+        return mask;
+    }
+
+    static boolean isSet(final long[] mask, final int bit) {
+        return (mask[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    /**
+     * Returns the days since 1970-01-01 of a proleptic Gregorian date.
+     */
+    static long getEpochDay(final long year, final int month, final int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - (era * 400);
+        long dayOfYear = (((153 * (month > 2 ? month - 3 : month + 9)) + 2) / 5) + day - 1;
+        long dayOfEra = (yearOfEra * 365) + (yearOfEra / 4) - (yearOfEra / 100) + dayOfYear;
+        return (era * DAYS_PER_CYCLE) + dayOfEra - 719468;
+    }
+
+    /**
+     * Returns the year, month and day of month of an epoch day.
+     */
+    static int[] getDate(final long epochDay) {
+        long z = epochDay + 719468;
+        long era = Math.floorDiv(z, DAYS_PER_CYCLE);
+        long dayOfEra = z - (era * DAYS_PER_CYCLE);
+        long yearOfEra = (dayOfEra - (dayOfEra / 1460) + (dayOfEra / 36524) - (dayOfEra / 146096)) / 365;
+        long dayOfYear = dayOfEra - ((365 * yearOfEra) + (yearOfEra / 4) - (yearOfEra / 100));
+        long mp = ((5 * dayOfYear) + 2) / 153;
+        int day = (int) (dayOfYear - (((153 * mp) + 2) / 5) + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        int year = (int) ((yearOfEra + (era * 400)) + (month <= 2 ? 1 : 0));
+        return new int[] { year, month, day };
+    }
+
+    /**
+     * Returns the day of the week of an epoch day, from 0 for Monday to 6 for Sunday.
+     */
+    static int getWeekday(final long epochDay) {
+        return (int) Math.floorMod(epochDay + 3, 7L);
+    }
+
+    static boolean isLeapYear(final long year) {
+        return ((year % 4) == 0 && (year % 100) != 0) || (year % 400) == 0;
+    }
+
+    static int getMonthLength(final long year, final int month) {
+        switch (month) {
+        case 2:
+            return isLeapYear(year) ? 29 : 28;
+        case 4:
+        case 6:
+        case 9:
+        case 11:
+            return 30;
+        default:
+            return 31;
+        }
+    }
+
+    /**
+     * Returns the epoch day of the first day of week 1 of <code>year</code>, the first week with at
+     * least four days in the year.
+     */
+    long getFirstWeekDay(final long year) {
+        long day = getEpochDay(year, 1, 1);
+        int offset = Math.floorMod(getWeekday(day) - weekStart, 7);
+        if (offset <= 3) {
+            return day - offset;
+        }
+        return day + 7 - offset;
+    }
+
+    /**
+     * Returns the local wall-clock seconds since the epoch of an instant.
+     */
+    long getLocalSeconds(final long instant) {
+        long seconds = Math.floorDiv(instant, 1000L);
+        return seconds + rules.getOffset(Instant.ofEpochSecond(seconds)).getTotalSeconds();
+    }
+
+    /**
+     * Returns the instant of a local wall-clock time. Times skipped by a DST gap are moved forward
+     * by the length of the gap, and repeated times resolve to the earlier offset.
+     */
+    long getInstant(final long epochDay, final int secondOfDay) {
+        long localSeconds = (epochDay * SECONDS_PER_DAY) + secondOfDay;
+        ZoneOffset offset;
+        if (rules.isFixedOffset()) {
+            offset = rules.getOffset(Instant.EPOCH);
+        } else {
+            offset = rules.getOffset(LocalDateTime.ofEpochSecond(localSeconds, 0, ZoneOffset.UTC));
+        }
+        return (localSeconds - offset.getTotalSeconds()) * 1000L;
+    }
+
+    /**
+     * Returns the length of one interval in milliseconds for MINUTELY and HOURLY rules.
+     */
+    long getStep() {
+        return (frequency == Frequency.MINUTELY ? 60000L : 3600000L) * interval;
+    }
+
+    /**
+     * Returns the index of the interval that contains <code>instant</code>, or an earlier one.
+     */
+    long getIntervalIndex(final long instant) {
+        if (instant <= dtstart) {
+            return 0;
+        }
+        long index;
+        if (frequency == Frequency.MINUTELY || frequency == Frequency.HOURLY) {
+            index = Math.floorDiv(instant - dtstart, getStep()) - 1;
+        } else {
+            long day = Math.floorDiv(getLocalSeconds(instant), SECONDS_PER_DAY);
+            switch (frequency) {
+            case DAILY:
+                index = Math.floorDiv(day - startDay, interval);
+                break;
+            case WEEKLY:
+                index = Math.floorDiv(getWeekStart(day) - getWeekStart(startDay), 7L * interval);
+                break;
+            case MONTHLY:
+                int[] date = getDate(day);
+                long months = ((date[0] - (long) startYear) * 12) + (date[1] - startMonth);
+                index = Math.floorDiv(months, interval);
+                break;
+            default:
+                index = Math.floorDiv(getDate(day)[0] - (long) startYear, interval);
+            }
+        }
+        return Math.max(index, 0);
+    }
+
+    /**
+     * Returns the longest span of one interval in milliseconds.
+     */
+    long getIntervalLength() {
+        switch (frequency) {
+        case MINUTELY:
+        case HOURLY:
+            return getStep();
+        case DAILY:
+            return SECONDS_PER_DAY * 1000L * interval;
+        case WEEKLY:
+            return 7 * SECONDS_PER_DAY * 1000L * interval;
+        case MONTHLY:
+            return 31 * SECONDS_PER_DAY * 1000L * interval;
+        default:
+            return 366 * SECONDS_PER_DAY * 1000L * interval;
+        }
+    }
+
+    long getWeekStart(final long day) {
+        return day - Math.floorMod(getWeekday(day) - weekStart, 7);
+    }
+
+    /**
+     * Returns a cursor over all the occurrences, starting at DTSTART.
+     *
+     * @return
+     */
+    public RecurrenceCursor getCursor() {
+        return new RecurrenceCursor(this, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns a cursor over the occurrences starting at or after <code>from</code> and before
+     * <code>to</code>. When COUNT does not need every earlier occurrence to be counted, the cursor
+     * jumps straight to the interval containing <code>from</code>.
+     *
+     * @param from
+     * @param to
+     * @return
+     */
+    public RecurrenceCursor getCursor(final long from, final long to) {
+        return new RecurrenceCursor(this, from, to);
+    }
+
+    /**
+     * Returns the start of the occurrences between <code>from</code> and <code>to</code>.
+     *
+     * @param from
+     * @param to
+     * @return
+     */
+    public List<Long> getOccurrences(final long from, final long to) {
+        List<Long> occurrences = new ArrayList<Long>();
+        for (RecurrenceCursor cursor = getCursor(from, to); cursor.hasNext();) {
+            occurrences.add(cursor.next());
+        }
+        return occurrences;
+    }
+}
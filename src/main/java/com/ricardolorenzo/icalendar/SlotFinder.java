@@ -0,0 +1,264 @@
+/*
+ * SlotFinder class
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ *
+ * Author: Ricardo Lorenzo <unshakablespirit@gmail.com>
+ */
+package com.ricardolorenzo.icalendar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * Finds the earliest slots of a given length when all of a set of calendars are free, optionally
+ * only inside working hours.
+ *
+ * The window is searched in chunks that double in length, starting with one day, and the search
+ * stops at the chunk where enough slots are found. For every chunk, the busy intervals of all the
+ * calendars are coalesced into one sorted list, and the gaps between them are walked together with
+ * the sorted working intervals of the window. Tentative events count as busy. Consecutive slots
+ * found in the same free time do not overlap.
+ *
+ * @author Ricardo_Lorenzo
+ *
+ */
+public class SlotFinder {
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    private final VCalendar[] calendars;
+    private int workingStart;
+    private int workingEnd;
+    private boolean[] workingDays;
+
+    public SlotFinder(final List<VCalendar> calendars) {
+        this.calendars = calendars.toArray(new VCalendar[calendars.size()]);
+        this.workingStart = -1;
+        this.workingEnd = -1;
+    }
+
+    /**
+     * Restricts the slots to the days of the week given, as <code>Calendar.MONDAY</code> to
+     * <code>Calendar.SUNDAY</code>.
+     *
+     * @param days
+     */
+    public void setWorkingDays(final int... days) {
+        boolean[] values = new boolean[Calendar.SATURDAY + 1];
+        for (int day : days) {
+            if (day < Calendar.SUNDAY || day > Calendar.SATURDAY) {
+                throw new IllegalArgumentException("invalid day of week");
+            }
+            values[day] = true;
+        }
+        this.workingDays = values;
+    }
+
+    /**
+     * Restricts the slots to the hours between <code>start</code> and <code>end</code> minutes
+     * after midnight of every day, in the default time zone.
+     *
+     * @param start
+     * @param end
+     */
+    public void setWorkingHours(final int start, final int end) {
+        if (start < 0 || end > 24 * 60 || start >= end) {
+            throw new IllegalArgumentException("invalid working hours");
+        }
+        this.workingStart = start;
+        this.workingEnd = end;
+    }
+
+    /**
+     * Returns the earliest <code>count</code> slots of <code>duration</code> milliseconds in a
+     * window when all the calendars are free, or fewer if the window has no more.
+     *
+     * @param window
+     * @param duration
+     * @param count
+     * @return
+     */
+    public List<Period> find(final Period window, final long duration, final int count) {
+        final long[] starts = findStarts(window.getStart().getTimeInMillis(), window.getEnd().getTimeInMillis(),
+                duration, count);
+        final List<Period> slots = new ArrayList<Period>(starts.length);
+        for (long start : starts) {
+            Calendar slotStart = Calendar.getInstance();
+            slotStart.setTimeInMillis(start);
+            Calendar slotEnd = Calendar.getInstance();
+            slotEnd.setTimeInMillis(start + duration);
+            slots.add(new Period(slotStart, slotEnd));
+        }
+        return slots;
+    }
+
+    /**
+     * Returns the starts of the earliest <code>count</code> slots of <code>duration</code>
+     * milliseconds between <code>start</code> and <code>end</code> when all the calendars are
+     * free, or fewer if the window has no more.
+     *
+     * @param start
+     * @param end
+     * @param duration
+     * @param count
+     * @return
+     */
+    public long[] findStarts(final long start, final long end, final long duration, final int count) {
+        if (duration <= 0) {
+            throw new IllegalArgumentException("invalid duration");
+        } else if (count <= 0) {
+            throw new IllegalArgumentException("invalid number of slots");
+        }
+        final Search search = new Search(start, getWorkingIntervals(start, end), duration, count);
+        long length = DAY;
+        for (long chunkStart = start; chunkStart < end && !search.isDone(); length *= 2) {
+            final long chunkEnd = end - chunkStart > length ? chunkStart + length : end;
+            final BusyIntervals busy = getBusyIntervals(chunkStart, chunkEnd);
+            for (int i = 0; i < busy.size() && !search.isDone(); i++) {
+                search.free(busy.getStart(i));
+                search.busy(busy.getEnd(i));
+            }
+            search.free(chunkEnd);
+            chunkStart = chunkEnd;
+        }
+        return search.getStarts();
+    }
+
+    /**
+     * Returns the busy time of all the calendars between <code>start</code> and <code>end</code>,
+     * of any type.
+     */
+    private BusyIntervals getBusyIntervals(final long start, final long end) {
+        final BusyIntervals[] intervals = new BusyIntervals[calendars.length];
+        int size = 0;
+        for (int c = 0; c < calendars.length; c++) {
+            intervals[c] = calendars[c].getBusyIntervals(start, end);
+            size += intervals[c].size();
+        }
+        final long[] starts = new long[size];
+        final long[] ends = new long[size];
+        size = 0;
+        for (BusyIntervals calendar : intervals) {
+            for (int i = 0; i < calendar.size(); i++) {
+                starts[size] = calendar.getStart(i);
+                ends[size++] = calendar.getEnd(i);
+            }
+        }
+        final int[] types = new int[size];
+        Arrays.fill(types, BusyIntervals.getType(VFreeBusy.BUSY));
+        return BusyIntervals.coalesce(start, end, starts, ends, types, size);
+    }
+
+    /**
+     * Returns the working intervals between <code>start</code> and <code>end</code> as pairs of
+     * start and end milliseconds, in order.
+     */
+    private long[] getWorkingIntervals(final long start, final long end) {
+        if (workingStart < 0 && workingDays == null) {
+            return new long[] { start, end };
+        }
+        final int from = workingStart < 0 ? 0 : workingStart;
+        final int to = workingStart < 0 ? 24 * 60 : workingEnd;
+        long[] intervals = new long[16];
+        int size = 0;
+        final Calendar day = Calendar.getInstance();
+        day.setTimeInMillis(start);
+        day.set(Calendar.HOUR_OF_DAY, 0);
+        day.set(Calendar.MINUTE, 0);
+        day.set(Calendar.SECOND, 0);
+        day.set(Calendar.MILLISECOND, 0);
+        for (; day.getTimeInMillis() < end; day.add(Calendar.DAY_OF_MONTH, 1)) {
+            if (workingDays != null && !workingDays[day.get(Calendar.DAY_OF_WEEK)]) {
+                continue;
+            }
+            final Calendar time = (Calendar) day.clone();
+            time.set(Calendar.HOUR_OF_DAY, from / 60);
+            time.set(Calendar.MINUTE, from % 60);
+            final long intervalStart = Math.max(time.getTimeInMillis(), start);
+            time.setTimeInMillis(day.getTimeInMillis());
+            time.set(Calendar.HOUR_OF_DAY, to / 60);
+            time.set(Calendar.MINUTE, to % 60);
+            final long intervalEnd = Math.min(time.getTimeInMillis(), end);
+            if (intervalStart < intervalEnd) {
+                if (size == intervals.length) {
+                    intervals = Arrays.copyOf(intervals, size * 2);
+                }
+                intervals[size++] = intervalStart;
+                intervals[size++] = intervalEnd;
+            }
+        }
+        return Arrays.copyOf(intervals, size);
+    }
+
+    /**
+     * State of a search, walking the free time of the calendars in order together with the
+     * working intervals.
+     */
+    private static final class Search {
+        private final long[] working;
+        private final long duration;
+        private final int count;
+        private long[] starts;
+        private int size;
+        private int next;
+        private long position;
+
+        Search(final long start, final long[] working, final long duration, final int count) {
+            this.working = working;
+            this.duration = duration;
+            this.count = count;
+            this.starts = new long[Math.min(count, 16)];
+            this.size = 0;
+            this.next = 0;
+            this.position = start;
+        }
+
+        /**
+         * Takes the slots that fit between the current position, where the calendars are free,
+         * and <code>end</code>.
+         */
+        void free(final long end) {
+            while (next < working.length && !isDone()) {
+                final long start = Math.max(position, working[next]);
+                if (start + duration > Math.min(working[next + 1], end)) {
+                    if (working[next + 1] > end) {
+                        return;
+                    }
+                    next += 2;
+                    continue;
+                }
+                if (size == starts.length) {
+                    starts = Arrays.copyOf(starts, Math.min(size * 2, count));
+                }
+                starts[size++] = start;
+                position = start + duration;
+            }
+        }
+
+        /**
+         * Moves the position past a busy interval ending at <code>end</code>.
+         */
+        void busy(final long end) {
+            position = Math.max(position, end);
+        }
+
+        long[] getStarts() {
+            return Arrays.copyOf(starts, size);
+        }
+
+        boolean isDone() {
+            return size == count;
+        }
+    }
+}
@@ -0,0 +1,400 @@
+/*
+ * TextIndex class
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ *
+ * Author: Ricardo Lorenzo <unshakablespirit@gmail.com>
+ */
+package com.ricardolorenzo.icalendar;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Inverted index over the words of the SUMMARY, LOCATION and DESCRIPTION of components.
+ *
+ * Words are split on anything that is not a letter or a digit, lower cased and stripped of
+ * accents. Every component gets a dense number, reused after removals, and every word keeps the
+ * numbers of the components that contain it with a weight: three for each time it appears in the
+ * summary, two in the location and one in the description. The dictionary is sorted, so a word
+ * ending with <code>*</code> in a query matches every word starting with it.
+ *
+ * The index is not synchronized.
+ *
+ * @author Ricardo_Lorenzo
+ *
+ */
+class TextIndex<T extends VAction> implements ComponentIndex<T> {
+    private static final float SUMMARY_WEIGHT = 3f;
+    private static final float LOCATION_WEIGHT = 2f;
+    private static final float DESCRIPTION_WEIGHT = 1f;
+
+    private final List<T> components;
+    private final List<String[]> terms;
+    private final Map<T, Integer> ids;
+    private final BitSet used;
+    private final NavigableMap<String, Postings> dictionary;
+
+    TextIndex() {
+        this.components = new ArrayList<T>();
+        this.terms = new ArrayList<String[]>();
+        this.ids = new IdentityHashMap<T, Integer>();
+        this.used = new BitSet();
+        this.dictionary = new TreeMap<String, Postings>();
+    }
+
+    TextIndex(final Collection<T> components) {
+        this();
+        for (T component : components) {
+            add(component);
+        }
+    }
+
+    /**
+     * Splits a text into lower case words without accents.
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<String>();
+        if (text == null) {
+            return tokens;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > 0x7f) {
+                text = Normalizer.normalize(text, Normalizer.Form.NFD);
+                break;
+            }
+        }
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                token.append(Character.toLowerCase(c));
+            } else if (Character.getType(c) != Character.NON_SPACING_MARK && token.length() > 0) {
+                tokens.add(token.toString());
+                token.setLength(0);
+            }
+        }
+        if (token.length() > 0) {
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+
+    private static String getLocation(final VAction component) {
+        if (component instanceof VEvent) {
+            return ((VEvent) component).getLocation();
+        } else if (component instanceof VTodo) {
+            return ((VTodo) component).getLocation();
+        }
+        return null;
+    }
+
+    private static void addWeights(final Map<String, Float> weights, final String text, final float weight) {
+        for (String token : tokenize(text)) {
+            Float value = weights.get(token);
+            weights.put(token, value == null ? weight : value + weight);
+        }
+    }
+
+    /**
+     * Adds a component with its current text, replacing the text indexed for it before.
+     */
+    @Override
+    public void add(final T component) {
+        remove(component);
+        Map<String, Float> weights = new HashMap<String, Float>();
+        addWeights(weights, component.summary, SUMMARY_WEIGHT);
+        addWeights(weights, getLocation(component), LOCATION_WEIGHT);
+        addWeights(weights, component.description, DESCRIPTION_WEIGHT);
+
+        int id = used.nextClearBit(0);
+        String[] componentTerms = weights.keySet().toArray(new String[weights.size()]);
+        if (id == components.size()) {
+            components.add(component);
+            terms.add(componentTerms);
+        } else {
+            components.set(id, component);
+            terms.set(id, componentTerms);
+        }
+        used.set(id);
+        ids.put(component, id);
+        for (Map.Entry<String, Float> e : weights.entrySet()) {
+            Postings postings = dictionary.get(e.getKey());
+            if (postings == null) {
+                postings = new Postings();
+                dictionary.put(e.getKey(), postings);
+            }
+            postings.add(id, e.getValue());
+        }
+    }
+
+    @Override
+    public boolean remove(final T component) {
+        Integer id = ids.remove(component);
+        if (id == null) {
+            return false;
+        }
+        for (String term : terms.get(id)) {
+            Postings postings = dictionary.get(term);
+            postings.remove(id);
+            if (postings.size == 0) {
+                dictionary.remove(term);
+            }
+        }
+        components.set(id, null);
+        terms.set(id, null);
+        used.clear(id);
+        return true;
+    }
+
+    /**
+     * Returns up to <code>limit</code> components containing every word of the query, best ranked
+     * first. Each word scores its weight in the component times its inverse document frequency.
+     *
+     * The words are intersected from the one with the fewest components, looking up the remaining
+     * candidates in the sorted lists of the others, so common words cost little when a rare one
+     * narrows the search.
+     */
+    List<T> search(final String query, final int limit) {
+        List<T> result = new ArrayList<T>();
+        List<Word> words = new ArrayList<Word>();
+        for (String word : query.trim().split("\\s+")) {
+            List<String> tokens = tokenize(word);
+            for (int i = 0; i < tokens.size(); i++) {
+                Word w = getWord(tokens.get(i), i == tokens.size() - 1 && word.endsWith("*"));
+                if (w == null) {
+                    return result;
+                }
+                words.add(w);
+            }
+        }
+        if (words.isEmpty() || limit <= 0) {
+            return result;
+        }
+        words.sort((a, b) -> Integer.compare(a.postings.size, b.postings.size));
+
+        Word first = words.get(0);
+        int count = first.postings.size;
+        int[] candidates = Arrays.copyOf(first.postings.ids, count);
+        float[] scores = new float[count];
+        for (int c = 0; c < count; c++) {
+            scores[c] = first.postings.weights[c] * first.idf;
+        }
+        for (int w = 1; w < words.size() && count > 0; w++) {
+            Word word = words.get(w);
+            int kept = 0;
+            int from = 0;
+            boolean merge = count * 8L > word.postings.size;
+            for (int c = 0; c < count; c++) {
+                int index = merge ? word.postings.scan(candidates[c], from) : word.postings.find(candidates[c], from);
+                if (index >= 0) {
+                    candidates[kept] = candidates[c];
+                    scores[kept++] = scores[c] + word.postings.weights[index] * word.idf;
+                    from = index + 1;
+                } else {
+                    from = -index - 1;
+                }
+            }
+            count = kept;
+        }
+
+        /*
+         * Min-heap of the best candidates so far, with the worst one at the root.
+         */
+        int[] heap = new int[Math.min(limit, count)];
+        int size = 0;
+        for (int c = 0; c < count; c++) {
+            if (size < heap.length) {
+                heap[size] = c;
+                for (int i = size++; i > 0 && isBetter(heap[(i - 1) / 2], heap[i], scores, candidates);
+                        i = (i - 1) / 2) {
+                    swap(heap, i, (i - 1) / 2);
+                }
+            } else if (isBetter(c, heap[0], scores, candidates)) {
+                heap[0] = c;
+                siftDown(heap, size, scores, candidates);
+            }
+        }
+        while (size > 0) {
+            result.add(components.get(candidates[heap[0]]));
+            heap[0] = heap[--size];
+            siftDown(heap, size, scores, candidates);
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * Returns the components of a word with its inverse document frequency, or null if no
+     * component contains it. The words starting with a prefix are merged into one list, already
+     * weighted by their frequencies.
+     */
+    private Word getWord(final String token, final boolean prefix) {
+        if (!prefix) {
+            Postings postings = dictionary.get(token);
+            if (postings == null) {
+                return null;
+            }
+            return new Word(postings, getIdf(postings));
+        }
+
+        Collection<Postings> matches = dictionary.subMap(token, true, token + Character.MAX_VALUE, false).values();
+        if (matches.isEmpty()) {
+            return null;
+        } else if (matches.size() == 1) {
+            Postings postings = matches.iterator().next();
+            return new Word(postings, getIdf(postings));
+        }
+        int total = 0;
+        for (Postings postings : matches) {
+            total += postings.size;
+        }
+        long[] keys = new long[total];
+        float[] weights = new float[total];
+        int n = 0;
+        for (Postings postings : matches) {
+            float idf = getIdf(postings);
+            for (int i = 0; i < postings.size; i++, n++) {
+                keys[n] = ((long) postings.ids[i] << 32) | n;
+                weights[n] = postings.weights[i] * idf;
+            }
+        }
+        Arrays.sort(keys);
+        Postings merged = new Postings();
+        for (long key : keys) {
+            int id = (int) (key >>> 32);
+            float weight = weights[(int) key];
+            if (merged.size > 0 && merged.ids[merged.size - 1] == id) {
+                merged.weights[merged.size - 1] += weight;
+            } else {
+                merged.add(id, weight);
+            }
+        }
+        return new Word(merged, 1f);
+    }
+
+    private float getIdf(final Postings postings) {
+        return (float) Math.log(1d + (double) ids.size() / postings.size);
+    }
+
+    private static boolean isBetter(final int a, final int b, final float[] scores, final int[] candidates) {
+        if (scores[a] != scores[b]) {
+            return scores[a] > scores[b];
+        }
+        return candidates[a] < candidates[b];
+    }
+
+    private static void siftDown(final int[] heap, final int size, final float[] scores, final int[] candidates) {
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                return;
+            }
+            if (child + 1 < size && isBetter(heap[child], heap[child + 1], scores, candidates)) {
+                child++;
+            }
+            if (!isBetter(heap[i], heap[child], scores, candidates)) {
+                return;
+            }
+            swap(heap, i, child);
+            i = child;
+        }
+    }
+
+    private static void swap(final int[] heap, final int i, final int j) {
+        int value = heap[i];
+        heap[i] = heap[j];
+        heap[j] = value;
+    }
+
+    int size() {
+        return ids.size();
+    }
+
+    private static final class Word {
+        private final Postings postings;
+        private final float idf;
+
+        Word(final Postings postings, final float idf) {
+            this.postings = postings;
+            this.idf = idf;
+        }
+    }
+
+    /**
+     * Numbers and weights of the components containing one word, sorted by number.
+     */
+    private static final class Postings {
+        private int[] ids = new int[2];
+        private float[] weights = new float[2];
+        private int size;
+
+        void add(final int id, final float weight) {
+            int index = size == 0 || ids[size - 1] < id ? size : -find(id, 0) - 1;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                weights = Arrays.copyOf(weights, size * 2);
+            }
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            System.arraycopy(weights, index, weights, index + 1, size - index);
+            ids[index] = id;
+            weights[index] = weight;
+            size++;
+        }
+
+        /**
+         * Returns the index of <code>id</code> at or after <code>from</code>, or
+         * <code>-(insertion point) - 1</code> if it is missing. The search gallops from
+         * <code>from</code>, so walking the list in order costs little more than a merge.
+         */
+        int find(final int id, final int from) {
+            int low = from;
+            int bound = 1;
+            while (low + bound < size && ids[low + bound] < id) {
+                low += bound;
+                bound *= 2;
+            }
+            int high = Math.min(low + bound + 1, size);
+            return Arrays.binarySearch(ids, low, high, id);
+        }
+
+        /**
+         * Same as <code>find</code>, walking one number at a time.
+         */
+        int scan(final int id, int from) {
+            while (from < size && ids[from] < id) {
+                from++;
+            }
+            return from < size && ids[from] == id ? from : -from - 1;
+        }
+
+        void remove(final int id) {
+            int index = find(id, 0);
+            if (index >= 0) {
+                System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+                System.arraycopy(weights, index + 1, weights, index, size - index - 1);
+                size--;
+            }
+        }
+    }
+}
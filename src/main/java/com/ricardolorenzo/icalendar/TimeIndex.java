@@ -0,0 +1,198 @@
+/*
+ * TimeIndex class
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ *
+ * Author: Ricardo Lorenzo <unshakablespirit@gmail.com>
+ */
+package com.ricardolorenzo.icalendar;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Index of components by the span between the start of their first occurrence and the end of
+ * their last one, so a window query only expands the components that can overlap it.
+ *
+ * Spans are kept in levels of buckets one hour wide at the bottom and sixteen times wider at each
+ * level up. Every span is stored once, in the bucket of its start on the lowest level whose buckets
+ * are at least as long as the span, so a window only has to look at the buckets it covers plus the
+ * one before on each level. Spans of rules without COUNT or UNTIL are kept apart, sorted by start.
+ *
+ * The index is not synchronized.
+ *
+ * @author Ricardo_Lorenzo
+ *
+ */
+class TimeIndex<T extends VAction> implements ComponentIndex<T> {
+    private static final long BUCKET = 60 * 60 * 1000L;
+    private static final int LEVELS = 10;
+    private static final int FANOUT_BITS = 4;
+
+    private final List<Map<Long, List<Entry<T>>>> levels;
+    private final TreeMap<Long, List<Entry<T>>> unbounded;
+    private final Map<T, Entry<T>> entries;
+
+    TimeIndex() {
+        this.levels = new ArrayList<Map<Long, List<Entry<T>>>>(LEVELS);
+        for (int i = 0; i < LEVELS; i++) {
+            this.levels.add(new HashMap<Long, List<Entry<T>>>());
+        }
+        this.unbounded = new TreeMap<Long, List<Entry<T>>>();
+        this.entries = new IdentityHashMap<T, Entry<T>>();
+    }
+
+    TimeIndex(final Collection<T> components) {
+        this();
+        for (T component : components) {
+            add(component);
+        }
+    }
+
+    private static long getWidth(final int level) {
+        return BUCKET << (FANOUT_BITS * level);
+    }
+
+    /**
+     * Adds a component with its current span, replacing the span stored for it before.
+     */
+    @Override
+    public void add(final T component) {
+        remove(component);
+        long start = component.getSpanStart();
+        Entry<T> entry = new Entry<T>(component, start, Math.max(component.getSpanEnd(), start));
+        entry.level = -1;
+        if (entry.end < Long.MAX_VALUE) {
+            for (int i = 0; i < LEVELS; i++) {
+                if (entry.end - entry.start <= getWidth(i)) {
+                    entry.level = i;
+                    break;
+                }
+            }
+        }
+        if (entry.level < 0) {
+            add(unbounded, entry.start, entry);
+        } else {
+            add(levels.get(entry.level), Math.floorDiv(entry.start, getWidth(entry.level)), entry);
+        }
+        entries.put(component, entry);
+    }
+
+    private static <T extends VAction> void add(final Map<Long, List<Entry<T>>> buckets, final Long key,
+            final Entry<T> entry) {
+        List<Entry<T>> bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = new ArrayList<Entry<T>>(2);
+            buckets.put(key, bucket);
+        }
+        bucket.add(entry);
+    }
+
+    /**
+     * Removes a component.
+     *
+     * @return true if the component was indexed
+     */
+    @Override
+    public boolean remove(final T component) {
+        Entry<T> entry = entries.remove(component);
+        if (entry == null) {
+            return false;
+        }
+        Map<Long, List<Entry<T>>> buckets;
+        Long key;
+        if (entry.level < 0) {
+            buckets = unbounded;
+            key = entry.start;
+        } else {
+            buckets = levels.get(entry.level);
+            key = Math.floorDiv(entry.start, getWidth(entry.level));
+        }
+        List<Entry<T>> bucket = buckets.get(key);
+        bucket.remove(entry);
+        if (bucket.isEmpty()) {
+            buckets.remove(key);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the components whose span overlaps the window between <code>start</code> and
+     * <code>end</code>. Spans without length overlap the window they start in.
+     */
+    List<T> get(final long start, final long end) {
+        List<T> components = new ArrayList<T>();
+        if (start > end) {
+            return components;
+        }
+        for (int i = 0; i < LEVELS; i++) {
+            Map<Long, List<Entry<T>>> buckets = levels.get(i);
+            if (buckets.isEmpty()) {
+                continue;
+            }
+            long width = getWidth(i);
+            /*
+             * Spans are not longer than the buckets of their level, so one overlapping the window
+             * starts at most one bucket before it.
+             */
+            long first = Math.floorDiv(start, width) - 1;
+            long last = Math.floorDiv(end, width);
+            if (last - first >= buckets.size()) {
+                for (List<Entry<T>> bucket : buckets.values()) {
+                    collect(bucket, start, end, components);
+                }
+            } else {
+                for (long key = first; key <= last; key++) {
+                    List<Entry<T>> bucket = buckets.get(key);
+                    if (bucket != null) {
+                        collect(bucket, start, end, components);
+                    }
+                }
+            }
+        }
+        for (List<Entry<T>> bucket : unbounded.headMap(end, false).values()) {
+            collect(bucket, start, end, components);
+        }
+        return components;
+    }
+
+    private static <T extends VAction> void collect(final List<Entry<T>> bucket, final long start, final long end,
+            final List<T> components) {
+        for (Entry<T> entry : bucket) {
+            if (entry.start < end && entry.end >= start) {
+                components.add(entry.component);
+            }
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private static final class Entry<T> {
+        private final T component;
+        private final long start;
+        private final long end;
+        private int level;
+
+        Entry(final T component, final long start, final long end) {
+            this.component = component;
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
@@ -19,22 +19,37 @@
  */
 package com.ricardolorenzo.icalendar;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.time.ZoneId;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.SortedMap;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TimeZone;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * @author Ricardo_Lorenzo
  *
  */
 public abstract class VAction implements Serializable, Cloneable {
-    public static final long serialVersionUID = 2740274024782042L;
+    public static final long serialVersionUID = 2740274024782043L;
     private static final long MINUTE = 60 * 1000L;
+    private static final long[] NO_DATES = new long[0];
     protected long created;
     protected long lastModified;
     protected long recurrenceId;
@@ -52,9 +67,26 @@ public abstract class VAction implements Serializable, Cloneable {
     protected Map<String, Person> organizer;
     protected Map<String, Person> attendee;
     protected List<String> extendedSupport;
-    protected List<Calendar> exdate;
+    /**
+     * @deprecated use <code>getExDates()</code>. This is a live view of the EXDATE values, and
+     *             assigning another list to it has no effect on the expansion.
+     */
+    @Deprecated
+    protected transient List<Calendar> exdate;
+    private long[] exdates;
+    private int exdateSize;
+    private NavigableMap<Long, VAction> overrides;
+    private NavigableMap<Long, VAction> instances;
+    private long instanceLength;
     protected RRule rrule;
-    private int count;
+    private int occurrenceCacheSize;
+    private transient OccurrenceCache occurrenceCache;
+    private long occurrenceHorizonLength;
+    private transient OccurrenceHorizon occurrenceHorizon;
+    private transient RecurrenceEngine recurrenceEngine;
+    private transient int rruleModifications;
+    private transient ZoneId occurrenceZone;
+    private ExpansionBudget expansionBudget;
 
     public VAction() {
         created = Calendar.getInstance().getTimeInMillis();
@@ -63,10 +95,48 @@ public abstract class VAction implements Serializable, Cloneable {
         due = 0;
         attendee = new HashMap<String, Person>();
         organizer = new HashMap<String, Person>();
-        exdate = new ArrayList<Calendar>();
+        exdates = new long[0];
+        exdateSize = 0;
+        exdate = new ExDateList();
+        overrides = new TreeMap<Long, VAction>();
+        instances = new TreeMap<Long, VAction>();
         categories = new ArrayList<String>();
         extendedSupport = new ArrayList<String>();
-        count = 0;
+    }
+
+    /**
+     * Creates a view of one occurrence of <code>master</code>. The view has no RRULE and shares
+     * the lists and maps of the master instead of copying them, wrapped so that changing them
+     * through the view throws <code>UnsupportedOperationException</code>.
+     */
+    VAction(final VAction master, final long start, final long end, final long recurrenceId) {
+        created = master.created;
+        lastModified = master.lastModified;
+        dtstamp = master.dtstamp;
+        uid = master.uid;
+        summary = master.summary;
+        description = master.description;
+        classType = master.classType;
+        status = master.status;
+        categories = Collections.unmodifiableList(master.categories);
+        organizer = Collections.unmodifiableMap(master.organizer);
+        attendee = Collections.unmodifiableMap(master.attendee);
+        extendedSupport = Collections.unmodifiableList(master.extendedSupport);
+        exdates = NO_DATES;
+        exdate = new ExDateList();
+        overrides = Collections.emptyNavigableMap();
+        instances = Collections.emptyNavigableMap();
+        dtstart = start;
+        duration = end - start;
+        this.recurrenceId = recurrenceId;
+    }
+
+    /**
+     * Restores the list view of the EXDATE values, which is not serialized.
+     */
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        exdate = new ExDateList();
     }
 
     /**
@@ -114,206 +184,83 @@ public abstract class VAction implements Serializable, Cloneable {
         return description;
     }
 
-    public void addExDate(final Calendar date) {
-        if (date != null) {
-            date.set(Calendar.MILLISECOND, 0);
-            exdate.add(date);
-        }
-    }
-
-    /**
-     * Applies BYDAY rules specified in RRULE.
-     * @param dates
-     * @return
-     */
-    private List<Period> getByDayPeriods(final Period p, final Calendar start, final Calendar end) {
-        Map<Long, Period> periods = new HashMap<Long, Period>();
-        if (!rrule.hasByDay()) {
-            return new ArrayList<Period>(periods.values());
-        }
-
-        Calendar offset = p.getStart();
-        for (String dayName : rrule.getByDay()) {
-            if (!rrule.hasByYearDay() || !rrule.hasByMonthDay()) {
-                if ("SU".equals(dayName)) {
-                    offset.set(Calendar.DAY_OF_WEEK, Calendar.SUNDAY);
-                } else if ("MO".equals(dayName)) {
-                    offset.set(Calendar.DAY_OF_WEEK, Calendar.MONDAY);
-                } else if ("TU".equals(dayName)) {
-                    offset.set(Calendar.DAY_OF_WEEK, Calendar.TUESDAY);
-                } else if ("WE".equals(dayName)) {
-                    offset.set(Calendar.DAY_OF_WEEK, Calendar.WEDNESDAY);
-                } else if ("TH".equals(dayName)) {
-                    offset.set(Calendar.DAY_OF_WEEK, Calendar.THURSDAY);
-                } else if ("FR".equals(dayName)) {
-                    offset.set(Calendar.DAY_OF_WEEK, Calendar.FRIDAY);
-                } else if ("SA".equals(dayName)) {
-                    offset.set(Calendar.DAY_OF_WEEK, Calendar.SATURDAY);
-                }
-            } else {
-                // TODO: Not implemented
-            }
-
-            Period tempPeriod = new Period((Calendar) offset.clone(), getEnd(offset));
-            if (validatePeriod(tempPeriod, start, end)) {
-                long key = tempPeriod.getEnd().getTimeInMillis() + tempPeriod.getStart().getTimeInMillis();
-                if (!periods.containsKey(key)) {
-                    periods.put(key, tempPeriod);
-                }
-            }
-        }
-
-        return new ArrayList<Period>(periods.values());
-    }
-
-    /**
-     * Applies BYHOUR rules specified in RRULE.
-     * @param dates
-     * @return
-     */
-    private List<Period> getByHourPeriods(final Period p, final Calendar start, final Calendar end) {
-        Map<Long, Period> periods = new HashMap<Long, Period>();
-        if (!rrule.hasByHour()) {
-            return new ArrayList<Period>(periods.values());
-        }
-
-        Calendar offset = p.getStart();
-        for (Integer hour : rrule.getByHour()) {
-            offset.set(Calendar.HOUR_OF_DAY, hour);
-            Period tempPeriod = new Period((Calendar) offset.clone(), getEnd(offset));
-            if (validatePeriod(tempPeriod, start, end)) {
-                long key = tempPeriod.getEnd().getTimeInMillis() + tempPeriod.getStart().getTimeInMillis();
-                if (!periods.containsKey(key)) {
-                    periods.put(key, tempPeriod);
-                }
-            }
-        }
-        return new ArrayList<Period>(periods.values());
-    }
-
     /**
-     * Applies BYMINUTE rules specified in RRULE.
-     * @param dates
-     * @return
+     * Adds an EXDATE. Dates are kept sorted as second precision milliseconds, so membership checks
+     * during the expansion are binary searches.
+     * @param date
      */
-    private List<Period> getByMinutePeriods(final Period p, final Calendar start, final Calendar end) {
-        Map<Long, Period> periods = new HashMap<Long, Period>();
-        if (!rrule.hasByMinute()) {
-            return new ArrayList<Period>(periods.values());
-        }
-
-        Calendar offset = p.getStart();
-        for (Integer minute : rrule.getByMinute()) {
-            offset.set(Calendar.MINUTE, minute);
-            Period tempPeriod = new Period((Calendar) offset.clone(), getEnd(offset));
-            if (validatePeriod(tempPeriod, start, end)) {
-                long key = tempPeriod.getEnd().getTimeInMillis() + tempPeriod.getStart().getTimeInMillis();
-                if (!periods.containsKey(key)) {
-                    periods.put(key, tempPeriod);
+    public void addExDate(final Calendar date) {
+        if (date != null) {
+            long value = date.getTimeInMillis();
+            value = getSecond(value);
+            int index = Arrays.binarySearch(exdates, 0, exdateSize, value);
+            if (index < 0) {
+                index = -index - 1;
+                if (exdateSize == exdates.length) {
+                    exdates = Arrays.copyOf(exdates, Math.max(exdateSize * 2, 4));
                 }
+                System.arraycopy(exdates, index, exdates, index + 1, exdateSize - index);
+                exdates[index] = value;
+                exdateSize++;
             }
+            invalidateOccurrences();
         }
-        return new ArrayList<Period>(periods.values());
     }
 
     /**
-     * Applies BYMONTHDAY rules specified in RRULE.
-     * @param dates
-     * @return
+     * Adds a modified instance of a recurring component. The instance replaces the occurrence that
+     * starts at its RECURRENCE-ID, and a cancelled instance removes it. Instances are kept sorted
+     * by RECURRENCE-ID, so each occurrence is checked with one map lookup, and by their own start,
+     * so the instances of a window are found without a scan. Changes made to the instance after it
+     * is added need another call to <code>addOverride</code>.
+     * @param instance
+     * @throws VCalendarException
+     *             if the instance has no RECURRENCE-ID
      */
-    private List<Period> getByMonthDayPeriods(final Period p, final Calendar start, final Calendar end) {
-        Map<Long, Period> periods = new HashMap<Long, Period>();
-        if (!rrule.hasByMonthDay()) {
-            return new ArrayList<Period>(periods.values());
-        }
-
-        Calendar offset = p.getStart();
-        for (Integer day : rrule.getByMonthDay()) {
-            offset.set(Calendar.DAY_OF_MONTH, day);
-            Period _p = new Period((Calendar) offset.clone(), getEnd(offset));
-            if (validatePeriod(_p, start, end)) {
-                long key = _p.getEnd().getTimeInMillis() + _p.getStart().getTimeInMillis();
-                if (!periods.containsKey(key)) {
-                    periods.put(key, _p);
-                }
-            }
+    public void addOverride(final VAction instance) throws VCalendarException {
+        if (instance == null || !instance.hasRecurrence()) {
+            throw new VCalendarException("missing recurrence id");
         }
-        return new ArrayList<Period>(periods.values());
-    }
-
-    /**
-     * Applies BYMONTH rules specified in RRULE.
-     * @param dates
-     * @return
-     */
-    private List<Period> getByMonthPeriods(final Period p, final Calendar start, final Calendar end) {
-        Map<Long, Period> periods = new HashMap<Long, Period>();
-        if (!rrule.hasByMonth()) {
-            return new ArrayList<Period>(periods.values());
+        VAction previous = overrides.put(getSecond(instance.recurrenceId), instance);
+        if (previous != null) {
+            removeInstance(previous);
         }
-
-        Calendar offset = p.getStart();
-        for (Integer month : rrule.getByMonth()) {
-            offset.roll(Calendar.MONTH, month);
-            Period _p = new Period((Calendar) offset.clone(), getEnd(offset));
-            if (validatePeriod(_p, start, end)) {
-                long key = _p.getEnd().getTimeInMillis() + _p.getStart().getTimeInMillis();
-                if (!periods.containsKey(key)) {
-                    periods.put(key, _p);
-                }
-            }
+        if (!instance.isCancelled()) {
+            instances.put(instance.getInstanceStart(), instance);
+            instanceLength = Math.max(instanceLength, instance.getOccurrenceLength());
         }
-        return new ArrayList<Period>(periods.values());
+        invalidateOccurrences();
     }
 
     /**
-     * Applies BYWEEKNO rules specified in RRULE.
-     * @param dates
-     * @return
+     * Removes the modified instance for a RECURRENCE-ID, restoring the occurrence of the rule.
+     * @param recurrenceId
      */
-    private List<Period> getByWeekNoPeriods(final Period p, final Calendar start, final Calendar end) {
-        Map<Long, Period> periods = new HashMap<Long, Period>();
-        if (!rrule.hasByWeekNo()) {
-            return new ArrayList<Period>(periods.values());
-        }
-
-        Calendar offset = p.getStart();
-        for (Integer week : rrule.getByWeekNo()) {
-            offset.set(Calendar.WEEK_OF_YEAR, week);
-            Period _p = new Period((Calendar) offset.clone(), getEnd(offset));
-            if (validatePeriod(_p, start, end)) {
-                long key = _p.getEnd().getTimeInMillis() + _p.getStart().getTimeInMillis();
-                if (!periods.containsKey(key)) {
-                    periods.put(key, _p);
-                }
-            }
+    public void removeOverride(final Calendar recurrenceId) {
+        long value = recurrenceId.getTimeInMillis();
+        VAction instance = overrides.remove(getSecond(value));
+        if (instance != null) {
+            removeInstance(instance);
+            invalidateOccurrences();
         }
-        return new ArrayList<Period>(periods.values());
     }
 
     /**
-     * Applies BYYEARDAY rules specified in RRULE.
-     * @param dates
-     * @return
+     * Drops a modified instance from the instances sorted by start. Another instance moved to the
+     * same start, if any, takes its place.
      */
-    private List<Period> getByYearDayPeriods(final Period p, final Calendar start, final Calendar end) {
-        Map<Long, Period> periods = new HashMap<Long, Period>();
-        if (!rrule.hasByYearDay()) {
-            return new ArrayList<Period>(periods.values());
+    private void removeInstance(final VAction instance) {
+        long start = instance.getInstanceStart();
+        if (instances.get(start) != instance) {
+            return;
         }
-
-        Calendar offset = p.getStart();
-        for (Integer day : rrule.getByYearDay()) {
-            offset.set(Calendar.DAY_OF_YEAR, day);
-            Period _p = new Period((Calendar) offset.clone(), getEnd(offset));
-            if (validatePeriod(_p, start, end)) {
-                long key = _p.getEnd().getTimeInMillis() + _p.getStart().getTimeInMillis();
-                if (!periods.containsKey(key)) {
-                    periods.put(key, _p);
-                }
+        instances.remove(start);
+        for (VAction other : overrides.values()) {
+            if (!other.isCancelled() && other.getInstanceStart() == start) {
+                instances.put(start, other);
+                break;
             }
         }
-        return new ArrayList<Period>(periods.values());
     }
 
     public List<String> getCategories() throws VCalendarException {
@@ -390,20 +337,100 @@ public abstract class VAction implements Serializable, Cloneable {
         return (int) ((end - dtstart) / MINUTE);
     }
 
-    private Calendar getEnd(final Calendar date) {
-        long diff = 0;
-        Calendar endDate = Calendar.getInstance();
-        if (dtend > 0) {
-            diff = dtend - dtstart;
-        } else if (due > 0) {
-            diff = due + dtstart;
+    /**
+     * Returns a live list of the EXDATE values in chronological order. Dates added to the list
+     * take their place in that order, and dates already in it are not added again. Changing a
+     * <code>Calendar</code> taken from the list does not change the EXDATE.
+     * @return
+     */
+    public List<Calendar> getExDates() {
+        return new ExDateList();
+    }
+
+    /**
+     * Removes the EXDATE at <code>index</code> in chronological order.
+     */
+    private long removeExDate(final int index) {
+        long value = exdates[index];
+        System.arraycopy(exdates, index + 1, exdates, index, exdateSize - index - 1);
+        exdateSize--;
+        invalidateOccurrences();
+        return value;
+    }
+
+    /**
+     * Returns the modified instance for a RECURRENCE-ID, or null if the occurrence is not modified.
+     * @param recurrenceId
+     * @return
+     */
+    public VAction getOverride(final Calendar recurrenceId) {
+        long value = recurrenceId.getTimeInMillis();
+        return overrides.get(getSecond(value));
+    }
+
+    /**
+     * Returns the modified instances sorted by RECURRENCE-ID.
+     * @return
+     */
+    public List<VAction> getOverrides() {
+        return new ArrayList<VAction>(overrides.values());
+    }
+
+    /**
+     * Returns the occurrences of the modified instances that overlap the window between
+     * <code>start</code> and <code>end</code>.
+     */
+    OccurrenceSet getOverrideOccurrences(final long start, final long end) {
+        if (instances.isEmpty() || start >= end) {
+            return new OccurrenceSet(1);
+        }
+        /*
+         * No instance is longer than instanceLength, so earlier ones cannot reach the window.
+         */
+        long from = start > Long.MIN_VALUE + instanceLength ? start - instanceLength : Long.MIN_VALUE;
+        SortedMap<Long, VAction> window = instances.subMap(from, end);
+        OccurrenceSet occurrences = new OccurrenceSet(Math.max(window.size(), 1));
+        for (Map.Entry<Long, VAction> entry : window.entrySet()) {
+            long instanceStart = entry.getKey();
+            long length = entry.getValue().getOccurrenceLength();
+            if (overlaps(instanceStart, length, start, end)) {
+                occurrences.add(instanceStart, instanceStart + length);
+            }
         }
-        endDate.setTimeInMillis(date.getTimeInMillis() + diff);
-        return endDate;
+        return occurrences;
     }
 
-    public List<Calendar> getExDates() {
-        return exdate;
+    /**
+     * Returns the modified instance that starts at <code>start</code>, or this component if there
+     * is none. An occurrence of the rule may start at the same instant as an instance moved there,
+     * so only occurrences known to come from a modified instance should be looked up.
+     */
+    VAction getInstance(final long start) {
+        VAction instance = instances.get(start);
+        return instance == null ? this : instance;
+    }
+
+    /**
+     * Rounds milliseconds down to the whole second, also before 1970, as the expansion does.
+     */
+    static long getSecond(final long time) {
+        return time - Math.floorMod(time, 1000L);
+    }
+
+    /**
+     * Returns the start of a modified instance, which is its RECURRENCE-ID when it has no DTSTART.
+     */
+    private long getInstanceStart() {
+        long start = dtstart > 0 ? dtstart : recurrenceId;
+        return getSecond(start);
+    }
+
+    /**
+     * Returns the limits applied when expanding this component, or null if it is unlimited.
+     * @return
+     */
+    public ExpansionBudget getExpansionBudget() {
+        return expansionBudget;
     }
 
     public Calendar getLastModified() {
@@ -412,218 +439,475 @@ public abstract class VAction implements Serializable, Cloneable {
         return date;
     }
 
-    private Period getNextPeriod(final Calendar date, final Calendar start, final Calendar end) {
-        Calendar offset = (Calendar) date.clone();
-        if (rrule != null) {
-            if ("MINUTELY".equals(rrule.getFrequency())) {
-                if (rrule.hasInterval()) {
-                    offset.add(Calendar.MINUTE, rrule.getInterval());
-                } else {
-                    offset.add(Calendar.MINUTE, 1);
-                }
-            } else if ("HOURLY".equals(rrule.getFrequency())) {
-                if (rrule.hasInterval()) {
-                    offset.add(Calendar.HOUR_OF_DAY, rrule.getInterval());
-                } else {
-                    offset.add(Calendar.HOUR_OF_DAY, 1);
-                }
-            } else if ("DAILY".equals(rrule.getFrequency())) {
-                if (rrule.hasInterval()) {
-                    offset.add(Calendar.DAY_OF_MONTH, rrule.getInterval());
-                } else {
-                    offset.add(Calendar.DAY_OF_MONTH, 1);
-                }
-            } else if ("WEEKLY".equals(rrule.getFrequency())) {
-                if (rrule.hasInterval()) {
-                    offset.add(Calendar.WEEK_OF_YEAR, rrule.getInterval());
-                } else {
-                    offset.add(Calendar.WEEK_OF_YEAR, 1);
-                }
-            } else if ("MONTHLY".equals(rrule.getFrequency())) {
-                if (rrule.hasInterval()) {
-                    offset.add(Calendar.MONTH, rrule.getInterval());
-                } else {
-                    offset.add(Calendar.MONTH, 1);
-                }
-            } else if ("YEARLY".equals(rrule.getFrequency())) {
-                if (rrule.hasInterval()) {
-                    offset.add(Calendar.YEAR, rrule.getInterval());
-                } else {
-                    offset.add(Calendar.YEAR, 1);
-                }
+    public List<Period> getPeriods(final Period period) {
+        return getPeriodsBetween(period.getStart(), period.getEnd());
+    }
+
+    /**
+     * Returns the occurrences for a specific time period as a sorted <code>OccurrenceSet</code>.
+     * @param period
+     * @return
+     */
+    public OccurrenceSet getOccurrences(final Period period) {
+        return getOccurrencesBetween(period.getStart().getTimeInMillis(), period.getEnd().getTimeInMillis());
+    }
+
+    /**
+     * Expands the occurrences between <code>start</code> and <code>end</code> into primitive arrays.
+     * The expansion stops at the <code>ExpansionBudget</code> of the component, if any, and the
+     * result is then marked as truncated.
+     * @param start
+     * @param end
+     * @return
+     */
+    protected OccurrenceSet getOccurrencesBetween(final long start, final long end) {
+        return getOccurrencesBetween(start, end, expansionBudget);
+    }
+
+    private OccurrenceSet getOccurrencesBetween(long start, long end, final ExpansionBudget budget) {
+        start = getSecond(start);
+        end = getSecond(end);
+        OccurrenceSet occurrences = getRuleOccurrences(start, end, budget);
+        if (!overrides.isEmpty()) {
+            occurrences = occurrences.merge(getOverrideOccurrences(start, end), false);
+        }
+        return occurrences;
+    }
+
+    /**
+     * Returns the occurrences of the rule that are neither excluded nor modified. Expansions with
+     * a budget do not use the horizon, which materializes its occurrences without limits.
+     */
+    private OccurrenceSet getRuleOccurrences(final long start, final long end, final ExpansionBudget budget) {
+        OccurrenceHorizon horizon = budget == null ? getOccurrenceHorizon() : null;
+        if (horizon != null) {
+            OccurrenceSet occurrences = horizon.get(start, end, System.currentTimeMillis());
+            if (occurrences != null) {
+                return occurrences;
             }
+        }
 
-            return new Period(offset, getEnd(offset));
+        OccurrenceCache cache = getOccurrenceCache();
+        if (cache == null) {
+            return expandOccurrences(start, end, budget);
         }
-        return null;
+
+        long generation = cache.getGeneration();
+        OccurrenceSet occurrences = cache.get(start, end);
+        if (occurrences == null) {
+            occurrences = expandOccurrences(start, end, budget);
+            if (occurrences.isTruncated()) {
+                return occurrences;
+            }
+            cache.put(start, end, occurrences, generation);
+        } else if (budget != null && occurrences.size() > budget.getMaxOccurrences()) {
+            OccurrenceSet truncated = new OccurrenceSet(occurrences);
+            truncated.truncate(budget.getMaxOccurrences());
+            return truncated;
+        }
+        return new OccurrenceSet(occurrences);
     }
 
-    public List<Period> getPeriods(final Period period) {
-        return getPeriodsBetween(period.getStart(), period.getEnd());
+    /**
+     * Appends the occurrences overlapping the window to a calendar wide result. Components without
+     * cache, horizon or modified instances are expanded straight into it, reusing its cursor
+     * buffer. The budget of the component, if any, takes precedence over <code>budget</code>.
+     * @return true if the expansion was truncated
+     */
+    boolean addOccurrences(final long start, final long end, final CalendarOccurrences target, final int index,
+            ExpansionBudget budget) {
+        if (expansionBudget != null) {
+            budget = expansionBudget;
+        }
+        final long length = getOccurrenceLength();
+        RecurrenceEngine engine = getRecurrenceEngine();
+        if (engine == null && overrides.isEmpty()) {
+            long dateStart = getSecond(dtstart);
+            if (overlaps(dateStart, length, start, end) && !isExcluded(dateStart)) {
+                target.add(dateStart, dateStart + length, index);
+            }
+            return false;
+        }
+        if (engine == null || !overrides.isEmpty() || occurrenceCacheSize > 0 || occurrenceHorizonLength > 0) {
+            OccurrenceSet occurrences = getRuleOccurrences(start, end, budget);
+            for (int i = 0; i < occurrences.size(); i++) {
+                target.add(occurrences.getStart(i), occurrences.getEnd(i), index);
+            }
+            OccurrenceSet modified = getOverrideOccurrences(start, end);
+            for (int i = 0; i < modified.size(); i++) {
+                target.add(modified.getStart(i), modified.getEnd(i), index, true);
+            }
+            return occurrences.isTruncated();
+        }
+
+        RecurrenceCursor cursor = new RecurrenceCursor(engine, start - length, end, target.getScratch());
+        int limit = Integer.MAX_VALUE;
+        if (budget != null) {
+            cursor.setLimit(budget.getMaxIterations());
+            limit = budget.getMaxOccurrences();
+        }
+        boolean truncated = false;
+        int count = 0;
+        while (cursor.hasNext()) {
+            long occurrence = cursor.next();
+            if (overlaps(occurrence, length, start, end) && !isExcluded(occurrence)) {
+                if (count == limit) {
+                    truncated = true;
+                    break;
+                }
+                target.add(occurrence, occurrence + length, index);
+                count++;
+            }
+        }
+        target.setScratch(cursor.getBuffer());
+        return truncated || cursor.isTruncated();
     }
 
-    protected List<Period> getPeriodsBetween(final Calendar start_date, final Calendar end_date) {
-        Map<Long, Period> dates = new HashMap<Long, Period>();
-        start_date.set(Calendar.MILLISECOND, 0);
-        end_date.set(Calendar.MILLISECOND, 0);
+    private OccurrenceSet expandOccurrences(final long start, final long end, final ExpansionBudget budget) {
+        final long dateStart = getSecond(dtstart);
+        final long length = getOccurrenceLength();
 
-        Calendar start = (Calendar) start_date.clone();
-        Calendar end = (Calendar) end_date.clone();
+        OccurrenceSet occurrences = new OccurrenceSet();
+        RecurrenceEngine engine = getRecurrenceEngine();
+        if (engine == null) {
+            if (overlaps(dateStart, length, start, end) && !isExcluded(dateStart)) {
+                occurrences.add(dateStart, dateStart + length);
+            }
+            return occurrences;
+        }
 
-        if (start.after(end)) {
-            return new ArrayList<Period>(dates.values());
+        RecurrenceCursor cursor = engine.getCursor(start - length, end);
+        int limit = Integer.MAX_VALUE;
+        if (budget != null) {
+            cursor.setLimit(budget.getMaxIterations());
+            limit = budget.getMaxOccurrences();
         }
-        Calendar dateStart = Calendar.getInstance();
-        dateStart.setTimeInMillis(dtstart);
-        dateStart.set(Calendar.MILLISECOND, 0);
+        while (cursor.hasNext()) {
+            long occurrence = cursor.next();
+            if (overlaps(occurrence, length, start, end) && !isExcluded(occurrence)) {
+                if (occurrences.size() == limit) {
+                    occurrences.setTruncated(true);
+                    break;
+                }
+                occurrences.add(occurrence, occurrence + length);
+            }
+        }
+        if (cursor.isTruncated()) {
+            occurrences.setTruncated(true);
+        }
+        return occurrences;
+    }
 
-        Calendar dateEnd = (Calendar) dateStart.clone();
+    /**
+     * Returns the length of every occurrence in milliseconds, from DTEND or DUE, or DURATION if
+     * there are none.
+     * @return
+     */
+    long getOccurrenceLength() {
         if (dtend > 0) {
-            dateEnd = Calendar.getInstance();
-            dateEnd.setTimeInMillis(dtend);
-            dateEnd.set(Calendar.MILLISECOND, 0);
+            return dtend - dtstart;
+        } else if (due > 0) {
+            return due - dtstart;
+        }
+        return Math.max(duration, 0);
+    }
 
-            if (dateEnd.before(end) && rrule == null) {
-                end = (Calendar) dateEnd.clone();
+    /**
+     * Returns the start of the first occurrence after <code>instant</code>, or null if there is
+     * none. Rules without COUNT, or without BY* parts, jump straight to the interval containing
+     * <code>instant</code>.
+     * @param instant
+     * @return
+     */
+    public Long nextOccurrenceAfter(final long instant) {
+        Long next = getNextOccurrence(instant);
+        Long instanceStart = instances.higherKey(instant);
+        if (instanceStart != null && (next == null || instanceStart < next)) {
+            next = instanceStart;
+        }
+        return next;
+    }
+
+    private Long getNextOccurrence(final long instant) {
+        RecurrenceEngine engine = getRecurrenceEngine();
+        if (engine == null) {
+            long dateStart = getSecond(dtstart);
+            if (dateStart > instant && !isExcluded(dateStart)) {
+                return dateStart;
             }
-        } else if (due > 0) {
-            dateEnd = Calendar.getInstance();
-            dateEnd.setTimeInMillis(due);
-            dateEnd.set(Calendar.MILLISECOND, 0);
+            return null;
+        }
 
-            if (dateEnd.before(end) && rrule == null) {
-                end = (Calendar) dateEnd.clone();
+        for (RecurrenceCursor cursor = engine.getCursor(instant + 1, Long.MAX_VALUE); cursor.hasNext();) {
+            long occurrence = cursor.next();
+            if (!isExcluded(occurrence)) {
+                return occurrence;
             }
         }
+        return null;
+    }
+
+    /**
+     * Returns the start of the last occurrence before <code>instant</code>, or null if there is
+     * none.
+     * @param instant
+     * @return
+     */
+    public Long previousOccurrenceBefore(final long instant) {
+        Long previous = getLastOccurrence(Long.MIN_VALUE, instant);
+        Long instanceStart = instances.lowerKey(instant);
+        if (instanceStart != null && (previous == null || instanceStart > previous)) {
+            previous = instanceStart;
+        }
+        return previous;
+    }
 
-        if (dateStart.after(end)) {
-            return new ArrayList<Period>(dates.values());
+    /**
+     * Returns true if <code>instant</code> falls inside an occurrence. Occurrences without length
+     * only contain their start.
+     * @param instant
+     * @return
+     */
+    public boolean isOccurringAt(final long instant) {
+        long length = getOccurrenceLength();
+        /*
+         * Every occurrence has the same length, so only the last one starting at or before the
+         * instant can contain it.
+         */
+        Long occurrence = getLastOccurrence(instant - length, instant + 1);
+        if (occurrence != null && (occurrence + length > instant || occurrence == instant)) {
+            return true;
         }
+        return !instances.isEmpty() && getOverrideOccurrences(instant, instant + 1).size() > 0;
+    }
 
-        if (dateStart.after(start) || (dateEnd.after(start))) {
-            Period _p = new Period((Calendar) dateStart.clone(), (Calendar) dateEnd.clone());
-            if (validatePeriod(_p, start, end)) {
-                dates.put((dateEnd.getTimeInMillis() + dateStart.getTimeInMillis()), _p);
+    /**
+     * Returns the start of the last occurrence at or after <code>lower</code> and before
+     * <code>upper</code>, or null if there is none. Windows of growing length are expanded
+     * backwards from <code>upper</code>, so the cost depends on the distance to that occurrence
+     * and not on the distance to DTSTART.
+     */
+    private Long getLastOccurrence(final long lower, long upper) {
+        RecurrenceEngine engine = getRecurrenceEngine();
+        if (engine == null) {
+            long dateStart = getSecond(dtstart);
+            if (dateStart >= lower && dateStart < upper && !isExcluded(dateStart)) {
+                return dateStart;
             }
+            return null;
         }
 
-        if (rrule != null) {
-            Calendar offset = (Calendar) dateStart.clone();
+        long floor = Math.max(lower, engine.dtstart);
+        upper = Math.min(upper, engine.until);
+        if (upper <= floor) {
+            return null;
+        }
+        if (engine.count > 0 && !engine.simple) {
+            /*
+             * COUNT needs every earlier occurrence, so a single forward pass is the cheapest.
+             */
+            return getLastOccurrence(engine.getCursor(floor, upper));
+        }
 
-            if (rrule.hasUntil()) {
-                if (end.after(rrule.getUntil())) {
-                    end = rrule.getUntil();
-                }
+        long span = engine.getIntervalLength();
+        while (true) {
+            long from = upper - Math.min(span, upper - floor);
+            Long occurrence = getLastOccurrence(engine.getCursor(from, upper));
+            if (occurrence != null || from == floor) {
+                return occurrence;
             }
+            upper = from;
+            span = span < Long.MAX_VALUE / 4 ? span * 2 : span;
+        }
+    }
 
-            if (rrule.hasWeekStart()) {
-                if ("SU".equals(rrule.getWeekStart())) {
-                    start.setFirstDayOfWeek(Calendar.SUNDAY);
-                    end.setFirstDayOfWeek(Calendar.SUNDAY);
-                    offset.setFirstDayOfWeek(Calendar.SUNDAY);
-                } else if ("MO".equals(rrule.getWeekStart())) {
-                    start.setFirstDayOfWeek(Calendar.MONDAY);
-                    end.setFirstDayOfWeek(Calendar.MONDAY);
-                    offset.setFirstDayOfWeek(Calendar.MONDAY);
-                } else if ("TU".equals(rrule.getWeekStart())) {
-                    start.setFirstDayOfWeek(Calendar.TUESDAY);
-                    end.setFirstDayOfWeek(Calendar.TUESDAY);
-                    offset.setFirstDayOfWeek(Calendar.TUESDAY);
-                } else if ("WE".equals(rrule.getWeekStart())) {
-                    start.setFirstDayOfWeek(Calendar.WEDNESDAY);
-                    end.setFirstDayOfWeek(Calendar.WEDNESDAY);
-                    offset.setFirstDayOfWeek(Calendar.WEDNESDAY);
-                } else if ("TH".equals(rrule.getWeekStart())) {
-                    start.setFirstDayOfWeek(Calendar.THURSDAY);
-                    end.setFirstDayOfWeek(Calendar.THURSDAY);
-                    offset.setFirstDayOfWeek(Calendar.THURSDAY);
-                } else if ("FR".equals(rrule.getWeekStart())) {
-                    start.setFirstDayOfWeek(Calendar.FRIDAY);
-                    end.setFirstDayOfWeek(Calendar.FRIDAY);
-                    offset.setFirstDayOfWeek(Calendar.FRIDAY);
-                } else if ("SA".equals(rrule.getWeekStart())) {
-                    start.setFirstDayOfWeek(Calendar.SATURDAY);
-                    end.setFirstDayOfWeek(Calendar.SATURDAY);
-                    offset.setFirstDayOfWeek(Calendar.SATURDAY);
-                }
+    private Long getLastOccurrence(final RecurrenceCursor cursor) {
+        Long last = null;
+        while (cursor.hasNext()) {
+            long occurrence = cursor.next();
+            if (!isExcluded(occurrence)) {
+                last = occurrence;
             }
+        }
+        return last;
+    }
 
-            for (Period p = new Period(dateStart, dateEnd); p != null; p = getNextPeriod(p.getStart(), start, end)) {
-                if (rrule.hasByMonth()) {
-                    for (Period _p : getByMonthPeriods(p, start, end)) {
-                        long key = _p.getEnd().getTimeInMillis() + _p.getStart().getTimeInMillis();
-                        if (!dates.containsKey(key)) {
-                            dates.put(key, _p);
-                        }
-                    }
-                }
+    /**
+     * Returns the earliest start of any occurrence, including the modified instances.
+     */
+    long getSpanStart() {
+        long start = getSecond(dtstart);
+        if (!instances.isEmpty()) {
+            start = Math.min(start, instances.firstKey());
+        }
+        return start;
+    }
 
-                if (rrule.hasByWeekNo()) {
-                    for (Period _p : getByWeekNoPeriods(p, start, end)) {
-                        long key = _p.getEnd().getTimeInMillis() + _p.getStart().getTimeInMillis();
-                        if (!dates.containsKey(key)) {
-                            dates.put(key, _p);
-                        }
-                    }
-                }
+    /**
+     * Returns an instant no occurrence ends after, or <code>Long.MAX_VALUE</code> for rules
+     * without COUNT or UNTIL. Rules with COUNT are walked once up to their last occurrence.
+     */
+    long getSpanEnd() {
+        final long length = getOccurrenceLength();
+        long end;
+        RecurrenceEngine engine = getRecurrenceEngine();
+        if (engine == null) {
+            end = getSecond(dtstart) + length;
+        } else if (engine.until < Long.MAX_VALUE) {
+            end = engine.until + length;
+        } else if (engine.count > 0) {
+            long last = engine.dtstart;
+            for (RecurrenceCursor cursor = engine.getCursor(engine.dtstart, Long.MAX_VALUE); cursor.hasNext();) {
+                last = cursor.next();
+            }
+            end = last + length;
+        } else {
+            return Long.MAX_VALUE;
+        }
+        for (Map.Entry<Long, VAction> entry : instances.entrySet()) {
+            end = Math.max(end, entry.getKey() + entry.getValue().getOccurrenceLength());
+        }
+        return end;
+    }
 
-                if (rrule.hasByYearDay()) {
-                    for (Period _p : getByYearDayPeriods(p, start, end)) {
-                        long key = _p.getEnd().getTimeInMillis() + _p.getStart().getTimeInMillis();
-                        if (!dates.containsKey(key)) {
-                            dates.put(key, _p);
-                        }
-                    }
-                }
+    /**
+     * Returns true if an occurrence overlaps the window between <code>start</code> and
+     * <code>end</code>. Occurrences without length overlap the window they start in.
+     */
+    static boolean overlaps(final long occurrence, final long length, final long start, final long end) {
+        return occurrence < end && (occurrence + length > start || occurrence >= start);
+    }
 
-                if (rrule.hasByMonthDay()) {
-                    for (Period _p : getByMonthDayPeriods(p, start, end)) {
-                        long key = _p.getEnd().getTimeInMillis() + _p.getStart().getTimeInMillis();
-                        if (!dates.containsKey(key)) {
-                            dates.put(key, _p);
-                        }
-                    }
-                }
+    /**
+     * Returns the cache of expanded occurrences, or null if it is disabled. The cache is cleared by
+     * the setters of the properties used by the expansion and by changes made in place to the
+     * RRULE object through its setters. Modified instances changed after
+     * <code>addOverride</code> need another call to it.
+     * @return
+     */
+    public synchronized OccurrenceCache getOccurrenceCache() {
+        checkRRule();
+        if (occurrenceCache == null && occurrenceCacheSize > 0) {
+            occurrenceCache = new OccurrenceCache(occurrenceCacheSize);
+        }
+        return occurrenceCache;
+    }
 
-                if (rrule.hasByDay()) {
-                    for (Period _p : getByDayPeriods(p, start, end)) {
-                        long key = _p.getEnd().getTimeInMillis() + _p.getStart().getTimeInMillis();
-                        if (!dates.containsKey(key)) {
-                            dates.put(key, _p);
-                        }
-                    }
-                }
+    /**
+     * Returns the materialized occurrences up to the rolling horizon, or null if the horizon is
+     * disabled or the component does not recur. The horizon is dropped and computed again on the
+     * same changes that clear the occurrence cache.
+     * @return
+     */
+    public synchronized OccurrenceHorizon getOccurrenceHorizon() {
+        checkRRule();
+        if (occurrenceHorizon == null && occurrenceHorizonLength > 0) {
+            RecurrenceEngine engine = getRecurrenceEngine();
+            if (engine != null) {
+                occurrenceHorizon = new OccurrenceHorizon(this, engine, System.currentTimeMillis(),
+                        occurrenceHorizonLength);
+            }
+        }
+        return occurrenceHorizon;
+    }
 
-                if (rrule.hasByHour()) {
-                    for (Period _p : getByHourPeriods(p, start, end)) {
-                        long key = _p.getEnd().getTimeInMillis() + _p.getStart().getTimeInMillis();
-                        if (!dates.containsKey(key)) {
-                            dates.put(key, _p);
-                        }
-                    }
-                }
+    /**
+     * Drops the cached and materialized occurrences. Subclasses call it whenever a property used by
+     * the expansion changes.
+     */
+    protected void invalidateOccurrences() {
+        OccurrenceCache cache = getOccurrenceCache();
+        if (cache != null) {
+            cache.clear();
+        }
+        synchronized (this) {
+            occurrenceHorizon = null;
+            recurrenceEngine = null;
+            rruleModifications = rrule == null ? 0 : rrule.getModifications();
+        }
+    }
 
-                if (rrule.hasByMinute()) {
-                    for (Period _p : getByMinutePeriods(p, start, end)) {
-                        long key = _p.getEnd().getTimeInMillis() + _p.getStart().getTimeInMillis();
-                        if (!dates.containsKey(key)) {
-                            dates.put(key, _p);
-                        }
-                    }
-                }
+    /**
+     * Drops the cached and materialized occurrences and the compiled rule if the RRULE object was
+     * changed in place, or the default time zone changed, since they were computed.
+     */
+    private synchronized void checkRRule() {
+        int modifications = rrule == null ? 0 : rrule.getModifications();
+        ZoneId zone = TimeZone.getDefault().toZoneId();
+        if (modifications != rruleModifications || !zone.equals(occurrenceZone)) {
+            rruleModifications = modifications;
+            occurrenceZone = zone;
+            if (occurrenceCache != null) {
+                occurrenceCache.clear();
+            }
+            occurrenceHorizon = null;
+            recurrenceEngine = null;
+        }
+    }
 
-                if (validatePeriod(p, start, end)) {
-                    long key = p.getEnd().getTimeInMillis() + p.getStart().getTimeInMillis();
-                    if (!dates.containsKey(key)) {
-                        dates.put(key, p);
-                    }
-                } else if (p.getEnd().after(end)) {
-                    break;
-                }
+    /**
+     * Returns the recurrence engine for the RRULE in the default time zone, or null if the
+     * component does not recur. The rule is compiled once and reused until DTSTART or the RRULE
+     * change, including changes made to the <code>RRule</code> object through its setters, or the
+     * default time zone changes. The cached and materialized occurrences are dropped with it.
+     * @return
+     */
+    public synchronized RecurrenceEngine getRecurrenceEngine() {
+        checkRRule();
+        if (rrule == null || rrule.getFrequency() == null) {
+            return null;
+        }
+        if (recurrenceEngine == null) {
+            try {
+                recurrenceEngine = new RecurrenceEngine(rrule, dtstart, occurrenceZone);
+            } catch (VCalendarException e) {
+                throw new IllegalStateException(e);
             }
         }
+        return recurrenceEngine;
+    }
+
+    /**
+     * Returns the occurrences that start from <code>start</code> onwards, generated on demand and in
+     * chronological order. The iterator never ends for rules without COUNT or UNTIL.
+     * @param start
+     * @return
+     */
+    public Iterator<Period> getPeriodsIterator(final Calendar start) {
+        return new OccurrenceIterator(this, start.getTimeInMillis(), Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns the occurrences for a specific time period, generated on demand and in chronological
+     * order, so callers can stop as soon as they have what they need.
+     * @param period
+     * @return
+     */
+    public Iterator<Period> getPeriodsIterator(final Period period) {
+        return new OccurrenceIterator(this, period.getStart().getTimeInMillis(), period.getEnd().getTimeInMillis());
+    }
+
+    /**
+     * Returns the occurrences for a specific time period as a lazy, ordered stream.
+     * @param period
+     * @return
+     */
+    public Stream<Period> getPeriodsStream(final Period period) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(getPeriodsIterator(period),
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
 
-        return new ArrayList<Period>(dates.values());
+    /**
+     * Returns the occurrences overlapping a time window, in chronological order.
+     * @param start_date
+     * @param end_date
+     * @return
+     */
+    protected List<Period> getPeriodsBetween(final Calendar start_date, final Calendar end_date) {
+        if (start_date.after(end_date)) {
+            return new ArrayList<Period>();
+        }
+        return getOccurrencesBetween(start_date.getTimeInMillis(), end_date.getTimeInMillis()).getPeriods();
     }
 
     public String getStatus() {
@@ -640,6 +924,11 @@ public abstract class VAction implements Serializable, Cloneable {
         return date;
     }
 
+    /**
+     * Returns the RRULE, or null if the component does not recur. Changes made to it through its
+     * setters apply to the next expansion.
+     * @return
+     */
     public RRule getRRule() {
         return rrule;
     }
@@ -658,6 +947,10 @@ public abstract class VAction implements Serializable, Cloneable {
         return false;
     }
 
+    public boolean hasOverrides() {
+        return !overrides.isEmpty();
+    }
+
     public boolean hasAttendee() {
         if (!attendee.isEmpty()) {
             return true;
@@ -672,14 +965,31 @@ public abstract class VAction implements Serializable, Cloneable {
         return false;
     }
 
-    private boolean isExdate(final Calendar date) {
-        date.set(Calendar.MILLISECOND, 0);
-        for (Calendar exdate : this.exdate) {
-            if (exdate.getTimeInMillis() == date.getTimeInMillis()) {
-                return true;
-            }
-        }
-        return false;
+    boolean isExdate(final long date) {
+        return exdateSize > 0 && Arrays.binarySearch(exdates, 0, exdateSize, date) >= 0;
+    }
+
+    /**
+     * Returns true if an occurrence of the rule is removed by an EXDATE or replaced by a modified
+     * instance.
+     */
+    boolean isExcluded(final long date) {
+        return isExdate(date) || (!overrides.isEmpty() && overrides.containsKey(date));
+    }
+
+    private boolean isCancelled() {
+        return "CANCELLED".equalsIgnoreCase(status);
+    }
+
+    /**
+     * Returns the component as iCalendar text with its dates in a time zone. Subclasses written
+     * before modified instances were kept need not override it, and are written with
+     * <code>toString()</code>.
+     * @param tz
+     * @return
+     */
+    public String toString(final VTimeZone tz) {
+        return toString();
     }
 
     public static String randomUid() {
@@ -692,6 +1002,7 @@ public abstract class VAction implements Serializable, Cloneable {
 
     public void removeRRule() {
         rrule = null;
+        invalidateOccurrences();
     }
 
     public void setAttendee(final String mail, final Person att) throws VCalendarException {
@@ -730,6 +1041,17 @@ public abstract class VAction implements Serializable, Cloneable {
 
     public void setDuration(final long duration) {
         this.duration = duration;
+        invalidateOccurrences();
+    }
+
+    /**
+     * Limits the occurrences and intervals examined by each expansion of this component. A null
+     * budget, the default, removes the limits. The budget takes precedence over the one of the
+     * calendar.
+     * @param budget
+     */
+    public void setExpansionBudget(final ExpansionBudget budget) {
+        this.expansionBudget = budget;
     }
 
     public void setLastModified(final Calendar lastModified) {
@@ -739,14 +1061,40 @@ public abstract class VAction implements Serializable, Cloneable {
     }
 
     public void setRecurrenceId(final Calendar date) {
-        date.set(Calendar.HOUR_OF_DAY, 12);
-        date.set(Calendar.MINUTE, 0);
-        date.set(Calendar.SECOND, 0);
-        recurrenceId = date.getTimeInMillis();
+        if (date != null) {
+            recurrenceId = date.getTimeInMillis();
+        }
+    }
+
+    /**
+     * Caches the occurrences of up to <code>size</code> windows, so repeated queries for the same
+     * window skip the expansion. A size of 0 disables the cache, which is the default.
+     * @param size
+     */
+    public synchronized void setOccurrenceCacheSize(final int size) {
+        occurrenceCacheSize = Math.max(size, 0);
+        if (occurrenceCacheSize > 0) {
+            occurrenceCache = new OccurrenceCache(occurrenceCacheSize);
+        } else {
+            occurrenceCache = null;
+        }
+    }
+
+    /**
+     * Keeps the occurrences from now up to <code>length</code> milliseconds ahead materialized,
+     * rolling forward as time passes, so window queries inside the horizon are answered with a
+     * binary search. A length of 0 disables the horizon, which is the default. Expansions with an
+     * <code>ExpansionBudget</code> do not use the horizon.
+     * @param length
+     */
+    public synchronized void setOccurrenceHorizon(final long length) {
+        occurrenceHorizonLength = Math.max(length, 0);
+        occurrenceHorizon = null;
     }
 
     public void setRRule(final RRule rrule) {
         this.rrule = rrule;
+        invalidateOccurrences();
     }
 
     public void setSummary(final String summary) {
@@ -757,42 +1105,48 @@ public abstract class VAction implements Serializable, Cloneable {
         this.uid = uid;
     }
 
-    private boolean validatePeriod(final Period p, final Calendar start, final Calendar end) {
-        if (p == null) {
-            return false;
+    /**
+     * List of the EXDATE values backed by the sorted array, so changes made through it reach the
+     * expansion.
+     */
+    private final class ExDateList extends AbstractList<Calendar> {
+        @Override
+        public boolean add(final Calendar date) {
+            int size = exdateSize;
+            addExDate(date);
+            return exdateSize > size;
         }
 
-        if (rrule != null) {
-            if (rrule.hasCount()) {
-                if (count > rrule.getCount()) {
-                    return false;
-                }
-                count++;
-            }
+        @Override
+        public void add(final int index, final Calendar date) {
+            add(date);
+        }
 
-            if (rrule.hasUntil()) {
-                Calendar until = rrule.getUntil();
-                until.set(Calendar.HOUR_OF_DAY, until.getMaximum(Calendar.HOUR_OF_DAY));
-                until.set(Calendar.MINUTE, until.getMaximum(Calendar.MINUTE));
-                until.set(Calendar.SECOND, until.getMaximum(Calendar.SECOND));
-                if (until.getTimeInMillis() < start.getTimeInMillis()) {
-                    return false;
-                }
+        @Override
+        public Calendar get(final int index) {
+            if (index < 0 || index >= exdateSize) {
+                throw new IndexOutOfBoundsException(String.valueOf(index));
             }
+            return DateTime.getCalendar(exdates[index]);
         }
 
-        if (p.getStart().getTimeInMillis() >= end.getTimeInMillis()) {
-            return false;
+        @Override
+        public Calendar remove(final int index) {
+            Calendar date = get(index);
+            removeExDate(index);
+            return date;
         }
 
-        if (p.getEnd().getTimeInMillis() <= start.getTimeInMillis()) {
-            return false;
+        @Override
+        public Calendar set(final int index, final Calendar date) {
+            Calendar previous = remove(index);
+            add(date);
+            return previous;
         }
 
-        if (isExdate(p.getStart())) {
-            return false;
+        @Override
+        public int size() {
+            return exdateSize;
         }
-
-        return true;
     }
 }
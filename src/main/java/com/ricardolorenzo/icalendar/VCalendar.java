@@ -29,10 +29,13 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.StringTokenizer;
 
 import com.ricardolorenzo.file.io.FileUtils;
@@ -67,13 +70,39 @@ public class VCalendar implements Serializable {
     private final Map<String, VEvent> vevent;
     private final Map<String, VTodo> vtodo;
     private final Map<String, VJournal> vjournal;
+    private List<VEvent> veventDetached;
+    private List<VTodo> vtodoDetached;
     private String method;
+    private ExpansionBudget expansionBudget;
+    transient private Map<String, Long> truncations;
     transient private File ical_file;
 
     transient private String line;
 
     transient private BufferedReader buffer;
 
+    transient private List<VEvent> veventInstances;
+
+    transient private List<VTodo> vtodoInstances;
+
+    transient private TimeIndex<VEvent> veventIndex;
+
+    transient private TimeIndex<VTodo> vtodoIndex;
+
+    transient private TimeIndex<VJournal> vjournalIndex;
+
+    transient private PropertyIndex<VEvent> veventProperties;
+
+    transient private PropertyIndex<VTodo> vtodoProperties;
+
+    transient private PropertyIndex<VJournal> vjournalProperties;
+
+    transient private TextIndex<VEvent> veventText;
+
+    transient private TextIndex<VTodo> vtodoText;
+
+    transient private TextIndex<VJournal> vjournalText;
+
     public VCalendar() throws VCalendarException {
         this.vtimezone = new VTimeZone(null);
         this.vevent = new HashMap<String, VEvent>();
@@ -130,30 +159,48 @@ public class VCalendar implements Serializable {
     }
 
     /**
-     * Add VEvent object
+     * Add VEvent object. A VEvent changed after it was added must be passed to
+     * <code>updateVevent</code>, so the indexes pick up its new values.
      * 
      * @param ve
      */
     public void addVevent(final VEvent ve) {
-        this.vevent.put(ve.getUid(), ve);
+        final VEvent previous = this.vevent.put(ve.getUid(), ve);
+        synchronized (this) {
+            reindex(this.veventIndex, previous, ve);
+            reindex(this.veventProperties, previous, ve);
+            reindex(this.veventText, previous, ve);
+        }
     }
 
     /**
-     * Add VJournal object
+     * Add VJournal object. A VJournal changed after it was added must be passed to
+     * <code>updateVjournal</code>, so the indexes pick up its new values.
      * 
      * @param vj
      */
     public void addVjournal(final VJournal vj) {
-        this.vjournal.put(vj.getUid(), vj);
+        final VJournal previous = this.vjournal.put(vj.getUid(), vj);
+        synchronized (this) {
+            reindex(this.vjournalIndex, previous, vj);
+            reindex(this.vjournalProperties, previous, vj);
+            reindex(this.vjournalText, previous, vj);
+        }
     }
 
     /**
-     * Add VTodo object
+     * Add VTodo object. A VTodo changed after it was added must be passed to
+     * <code>updateVtodo</code>, so the indexes pick up its new values.
      * 
      * @param vt
      */
     public void addVtodo(final VTodo vt) {
-        this.vtodo.put(vt.getUid(), vt);
+        final VTodo previous = this.vtodo.put(vt.getUid(), vt);
+        synchronized (this) {
+            reindex(this.vtodoIndex, previous, vt);
+            reindex(this.vtodoProperties, previous, vt);
+            reindex(this.vtodoText, previous, vt);
+        }
     }
 
     /**
@@ -172,6 +219,48 @@ public class VCalendar implements Serializable {
         return vtodos;
     }
 
+    /**
+     * Return a cursor over the occurrences of all the VEvent, VTodo and VJournal objects that end
+     * after an instant, in chronological order and without an end.
+     * 
+     * @param from
+     * @return
+     */
+    public AgendaCursor getAgenda(final long from) {
+        return new AgendaCursor(getAgendaCandidates(from), from);
+    }
+
+    /**
+     * Return a cursor that resumes after the position of a token returned by
+     * <code>AgendaCursor.getToken()</code>.
+     * 
+     * @param token
+     * @return
+     * @throws VCalendarException
+     */
+    public AgendaCursor getAgenda(final String token) throws VCalendarException {
+        return new AgendaCursor(getAgendaCandidates(AgendaCursor.getStart(token)), token);
+    }
+
+    private List<VAction> getAgendaCandidates(final long from) {
+        final long start = VAction.getSecond(from);
+        final List<VAction> components = new ArrayList<VAction>();
+        components.addAll(getVeventCandidates(start, Long.MAX_VALUE));
+        components.addAll(getVtodoCandidates(start, Long.MAX_VALUE));
+        components.addAll(getVjournalCandidates(start, Long.MAX_VALUE));
+        return components;
+    }
+
+    /**
+     * Return the limits applied to each component when expanding the calendar, or null if it is
+     * unlimited.
+     * 
+     * @return
+     */
+    public ExpansionBudget getExpansionBudget() {
+        return this.expansionBudget;
+    }
+
     /**
      * Return the method
      * 
@@ -185,55 +274,148 @@ public class VCalendar implements Serializable {
     }
 
     /**
-     * Return a list of recurrent VEvent objects for a specific time period.
+     * Return the occurrences of all the VEvent, VTodo and VJournal objects for a specific time
+     * period, sorted by start.
      * 
      * @param period
      * @return
      */
-    public List<VEvent> getRecurrentVevents(final Period period) {
-        final List<VEvent> vevents = new ArrayList<VEvent>();
-        for (final Entry<String, VEvent> e : this.vevent.entrySet()) {
-            final VEvent ve = e.getValue();
-            final List<Period> periods = ve.getPeriods(period);
-            if ((periods != null) && !periods.isEmpty()) {
-                for (final Period p : periods) {
-                    final VEvent vep = new VEvent();
-                    vep.setSummary(ve.getSummary());
-                    vep.setDTStamp(ve.getDTStamp());
-                    vep.setUid(ve.getUid());
-                    vep.setDTStart(p.getStart());
-                    vep.setRecurrenceId(p.getStart());
-                    vep.setDuration(DateTime.getMillisBetween(p.getStart(), p.getEnd()));
-                    vevents.add(vep);
+    public CalendarOccurrences getOccurrences(final Period period) {
+        return getOccurrences(period, false);
+    }
+
+    /**
+     * Return the occurrences of all the VEvent, VTodo and VJournal objects for a specific time
+     * period, sorted by start. When <code>parallel</code> is true the components are expanded on
+     * the common fork-join pool.
+     * 
+     * @param period
+     * @param parallel
+     * @return
+     */
+    public CalendarOccurrences getOccurrences(final Period period, final boolean parallel) {
+        final List<VAction> components = new ArrayList<VAction>();
+        components.addAll(getVeventCandidates(period));
+        components.addAll(getVtodoCandidates(period));
+        components.addAll(getVjournalCandidates(period));
+        return expand(components, period, parallel);
+    }
+
+    private CalendarOccurrences expand(final Collection<? extends VAction> components, final Period period) {
+        return expand(components, period, false);
+    }
+
+    private CalendarOccurrences expand(final Collection<? extends VAction> components, final Period period,
+            final boolean parallel) {
+        return expand(components, period.getStart().getTimeInMillis(), period.getEnd().getTimeInMillis(), parallel);
+    }
+
+    private CalendarOccurrences expand(final Collection<? extends VAction> components, final long start,
+            final long end, final boolean parallel) {
+        final CalendarOccurrences occurrences = CalendarOccurrences.expand(components, start, end, parallel,
+                this.expansionBudget);
+        if (occurrences.isTruncated()) {
+            synchronized (this) {
+                if (this.truncations == null) {
+                    this.truncations = new HashMap<String, Long>();
+                }
+                for (final VAction component : occurrences.getTruncatedComponents()) {
+                    final Long count = this.truncations.get(component.getUid());
+                    this.truncations.put(component.getUid(), count == null ? 1L : count + 1L);
                 }
             }
         }
+        return occurrences;
+    }
+
+    /**
+     * Replaces <code>previous</code> with <code>component</code> in an index, if it was built.
+     */
+    private static <T extends VAction> void reindex(final ComponentIndex<T> index, final T previous,
+            final T component) {
+        if (index != null) {
+            if (previous != null) {
+                index.remove(previous);
+            }
+            if (component != null) {
+                index.add(component);
+            }
+        }
+    }
+
+    private static long getSecond(final Calendar date) {
+        return VAction.getSecond(date.getTimeInMillis());
+    }
+
+    /**
+     * Return the VEvent objects whose dates can overlap a period. The index is built on the first
+     * query and kept up to date by the add, update and remove methods.
+     */
+    private List<VEvent> getVeventCandidates(final Period period) {
+        return getVeventCandidates(getSecond(period.getStart()), getSecond(period.getEnd()));
+    }
+
+    private synchronized List<VEvent> getVeventCandidates(final long start, final long end) {
+        if (this.veventIndex == null) {
+            this.veventIndex = new TimeIndex<VEvent>(this.vevent.values());
+        }
+        return this.veventIndex.get(start, end);
+    }
+
+    private List<VJournal> getVjournalCandidates(final Period period) {
+        return getVjournalCandidates(getSecond(period.getStart()), getSecond(period.getEnd()));
+    }
+
+    private synchronized List<VJournal> getVjournalCandidates(final long start, final long end) {
+        if (this.vjournalIndex == null) {
+            this.vjournalIndex = new TimeIndex<VJournal>(this.vjournal.values());
+        }
+        return this.vjournalIndex.get(start, end);
+    }
+
+    private List<VTodo> getVtodoCandidates(final Period period) {
+        return getVtodoCandidates(getSecond(period.getStart()), getSecond(period.getEnd()));
+    }
+
+    private synchronized List<VTodo> getVtodoCandidates(final long start, final long end) {
+        if (this.vtodoIndex == null) {
+            this.vtodoIndex = new TimeIndex<VTodo>(this.vtodo.values());
+        }
+        return this.vtodoIndex.get(start, end);
+    }
+
+    /**
+     * Return a list of recurrent VEvent objects for a specific time period. Each occurrence is a
+     * read-only view that shares the properties of its component.
+     * 
+     * @param period
+     * @return
+     */
+    public List<VEvent> getRecurrentVevents(final Period period) {
+        final CalendarOccurrences occurrences = expand(getVeventCandidates(period), period);
+        final List<VEvent> vevents = new ArrayList<VEvent>(occurrences.size());
+        for (int i = 0; i < occurrences.size(); i++) {
+            final VEvent component = (VEvent) occurrences.getComponent(i);
+            vevents.add(component.getOccurrence(occurrences.getStart(i), occurrences.getEnd(i),
+                    occurrences.isOverride(i)));
+        }
         return vevents;
     }
 
     /**
-     * Return a list of recurrent VTodo objects for a specific time period.
+     * Return a list of recurrent VTodo objects for a specific time period. Each occurrence is a
+     * read-only view that shares the properties of its component.
      * 
      * @param period
      * @return
      */
     public List<VTodo> getRecurrentVtodos(final Period period) {
-        final List<VTodo> vtodos = new ArrayList<VTodo>();
-        for (final Entry<String, VTodo> e : this.vtodo.entrySet()) {
-            final VTodo vt = e.getValue();
-            final List<Period> periods = vt.getPeriods(period);
-            if ((periods != null) && !periods.isEmpty()) {
-                for (final Period p : periods) {
-                    final VTodo vtp = new VTodo();
-                    vtp.setSummary(vt.getSummary());
-                    vtp.setDTStamp(vt.getDTStamp());
-                    vtp.setUid(vt.getUid());
-                    vtp.setDTStart(p.getStart());
-                    vtp.setRecurrenceId(p.getStart());
-                    vtp.setDuration(DateTime.getMillisBetween(p.getStart(), p.getEnd()));
-                    vtodos.add(vtp);
-                }
-            }
+        final CalendarOccurrences occurrences = expand(getVtodoCandidates(period), period);
+        final List<VTodo> vtodos = new ArrayList<VTodo>(occurrences.size());
+        for (int i = 0; i < occurrences.size(); i++) {
+            final VTodo component = (VTodo) occurrences.getComponent(i);
+            vtodos.add(component.getOccurrence(occurrences.getStart(i), occurrences.getEnd(i),
+                    occurrences.isOverride(i)));
         }
         return vtodos;
     }
@@ -247,6 +429,25 @@ public class VCalendar implements Serializable {
         return this.vtimezone;
     }
 
+    /**
+     * Return how many queries stopped at the expansion budget, by component UID.
+     * 
+     * @return
+     */
+    public synchronized Map<String, Long> getTruncations() {
+        if (this.truncations == null) {
+            return new HashMap<String, Long>();
+        }
+        return new HashMap<String, Long>(this.truncations);
+    }
+
+    /**
+     * Reset the counters of queries that stopped at the expansion budget.
+     */
+    public synchronized void resetTruncations() {
+        this.truncations = null;
+    }
+
     /**
      * Return a specific VEvent object
      * 
@@ -261,6 +462,39 @@ public class VCalendar implements Serializable {
         throw new VCalendarException("vevent not found");
     }
 
+    /**
+     * Return the UIDs of the VEvent objects matching a filter on their categories, status,
+     * organizers and attendees. The index is built on the first query and kept up to date by the
+     * add, update and remove methods.
+     * 
+     * @param filter
+     * @return
+     */
+    public synchronized Set<String> getVeventUids(final ComponentFilter filter) {
+        if (this.veventProperties == null) {
+            this.veventProperties = new PropertyIndex<VEvent>(this.vevent.values());
+        }
+        final Set<String> uids = new HashSet<String>();
+        for (final VEvent component : this.veventProperties.get(filter)) {
+            uids.add(component.getUid());
+        }
+        return uids;
+    }
+
+    /**
+     * Return the modified instances of VEvent objects missing from the calendar that could not
+     * be attached, because another instance with the same UID already stands in for the VEvent.
+     * 
+     * @return
+     */
+    public List<VEvent> getDetachedVevents() {
+        final List<VEvent> values = new ArrayList<VEvent>();
+        if (this.veventDetached != null) {
+            values.addAll(this.veventDetached);
+        }
+        return values;
+    }
+
     /**
      * Return all VEvent objects
      * 
@@ -279,17 +513,7 @@ public class VCalendar implements Serializable {
      * @return
      */
     public List<VEvent> getVevents(final Period period) {
-        final Map<String, VEvent> vevents = new HashMap<String, VEvent>();
-        for (final Entry<String, VEvent> e : this.vevent.entrySet()) {
-            final VEvent ve = e.getValue();
-            final List<Period> _dates = ve.getPeriods(period);
-            if ((_dates != null) && !_dates.isEmpty()) {
-                if (!vevents.containsKey(ve.getUid())) {
-                    vevents.put(ve.getUid(), ve);
-                }
-            }
-        }
-        return new ArrayList<VEvent>(vevents.values());
+        return expand(getVeventCandidates(period), period).getComponents(VEvent.class);
     }
 
     /**
@@ -322,6 +546,92 @@ public class VCalendar implements Serializable {
         return getVevents(Period.getWeekPeriod(date));
     }
 
+    /**
+     * Return the totals of the VEvent occurrences of a specific time period, in buckets of one
+     * unit of the <code>Calendar</code> field <code>step</code>, such as
+     * <code>Calendar.DAY_OF_MONTH</code> or <code>Calendar.WEEK_OF_YEAR</code>. Each bucket is keyed
+     * by the value of that field at its start.
+     * 
+     * @param period
+     * @param step
+     * @return
+     */
+    public CalendarAggregate getVeventsAggregate(final Period period, final int step) {
+        return CalendarAggregate.build(expand(getVeventCandidates(period), period), period.getStart(),
+                CalendarGrid.getBounds(period.getStart(), period.getEnd(), step), step);
+    }
+
+    /**
+     * Return the totals of the VEvent occurrences of the month starting at the calendar object, by
+     * month day. The calendar object is not modified.
+     * 
+     * @param date
+     * @return
+     */
+    public CalendarAggregate getVeventsAggregateForMonth(final Calendar date) {
+        return getVeventsAggregate(getViewPeriod(date, Calendar.MONTH), Calendar.DAY_OF_MONTH);
+    }
+
+    /**
+     * Return the VEvent objects of the day starting at the calendar object, by hour. The calendar
+     * object is not modified.
+     * 
+     * @param date
+     * @return
+     */
+    public CalendarGrid<VEvent> getVeventsGridForDay(final Calendar date) {
+        final Period period = getViewPeriod(date, Calendar.DAY_OF_MONTH);
+        return getGrid(getVeventCandidates(period), VEvent.class, period, Calendar.HOUR_OF_DAY,
+                Calendar.HOUR_OF_DAY);
+    }
+
+    /**
+     * Return the VEvent objects of the month starting at the calendar object, by month day. The
+     * calendar object is not modified.
+     * 
+     * @param date
+     * @return
+     */
+    public CalendarGrid<VEvent> getVeventsGridForMonth(final Calendar date) {
+        final Period period = getViewPeriod(date, Calendar.MONTH);
+        return getGrid(getVeventCandidates(period), VEvent.class, period, Calendar.DAY_OF_MONTH,
+                Calendar.DAY_OF_MONTH);
+    }
+
+    /**
+     * Return the VEvent objects of the week starting at the calendar object, by week day. The
+     * calendar object is not modified.
+     * 
+     * @param date
+     * @return
+     */
+    public CalendarGrid<VEvent> getVeventsGridForWeek(final Calendar date) {
+        final Period period = getViewPeriod(date, Calendar.WEEK_OF_MONTH);
+        return getGrid(getVeventCandidates(period), VEvent.class, period, Calendar.DAY_OF_MONTH,
+                Calendar.DAY_OF_WEEK);
+    }
+
+    /**
+     * Returns the period of one unit of <code>field</code> from the midnight of a date, without
+     * modifying the date.
+     */
+    private static Period getViewPeriod(final Calendar date, final int field) {
+        final Calendar start = (Calendar) date.clone();
+        start.set(Calendar.HOUR_OF_DAY, 0);
+        start.set(Calendar.MINUTE, 0);
+        start.set(Calendar.SECOND, 0);
+        start.set(Calendar.MILLISECOND, 0);
+        final Calendar end = (Calendar) start.clone();
+        end.add(field, 1);
+        return new Period(start, end);
+    }
+
+    private <T extends VAction> CalendarGrid<T> getGrid(final List<T> candidates, final Class<T> type,
+            final Period period, final int step, final int key) {
+        return CalendarGrid.build(expand(candidates, period), type, period.getStart(),
+                CalendarGrid.getBounds(period.getStart(), period.getEnd(), step), key);
+    }
+
     /**
      * Return a map of VEvent objects related to the calendar object day. The key of this map is an
      * <code>Integer</code> with the day hour (24h format).
@@ -330,27 +640,7 @@ public class VCalendar implements Serializable {
      * @return
      */
     public Map<Integer, List<VEvent>> getVeventsMapForDay(final Calendar date) {
-        final Period pdate = Period.getDayPeriod(date);
-        final Map<Integer, List<VEvent>> day_events = new HashMap<Integer, List<VEvent>>();
-        for (final VEvent ve : getVevents()) {
-            final List<Period> periods = ve.getPeriods(pdate);
-            if (periods != null) {
-                for (final Period p : periods) {
-                    final Map<String, VEvent> vevents = new HashMap<String, VEvent>();
-                    final Integer day = Integer.valueOf(p.getStart().get(Calendar.DAY_OF_MONTH));
-                    if (day_events.containsKey(day)) {
-                        for (final VEvent existant_ve : day_events.get(day)) {
-                            vevents.put(existant_ve.getUid(), existant_ve);
-                        }
-                    }
-                    if (!vevents.containsKey(ve.getUid())) {
-                        vevents.put(ve.getUid(), ve);
-                    }
-                    day_events.put(day, new ArrayList<VEvent>(vevents.values()));
-                }
-            }
-        }
-        return day_events;
+        return getVeventsGridForDay(date).toMap();
     }
 
     /**
@@ -361,28 +651,7 @@ public class VCalendar implements Serializable {
      * @return
      */
     public Map<Integer, List<VEvent>> getVeventsMapForMonth(final Calendar date) {
-        final Period pdate = Period.getMonthPeriod(date);
-        final Map<Integer, List<VEvent>> month_events = new HashMap<Integer, List<VEvent>>();
-        for (final VEvent ve : getVevents(pdate)) {
-            final List<Period> periods = ve.getPeriods(pdate);
-            if (periods != null) {
-                for (final Period p : periods) {
-                    final Map<String, VEvent> vevents = new HashMap<String, VEvent>();
-                    for (final Integer day : p.getMonthDays(date)) {
-                        if (month_events.containsKey(day)) {
-                            for (final VEvent existant_ve : month_events.get(day)) {
-                                vevents.put(existant_ve.getUid(), existant_ve);
-                            }
-                        }
-                        if (!vevents.containsKey(ve.getUid())) {
-                            vevents.put(ve.getUid(), ve);
-                        }
-                        month_events.put(day, new ArrayList<VEvent>(vevents.values()));
-                    }
-                }
-            }
-        }
-        return month_events;
+        return getVeventsGridForMonth(date).toMap();
     }
 
     /**
@@ -393,28 +662,7 @@ public class VCalendar implements Serializable {
      * @return
      */
     public Map<Integer, List<VEvent>> getVeventsMapForWeek(final Calendar date) {
-        final Period pdate = Period.getWeekPeriod(date);
-        final Map<Integer, List<VEvent>> week_events = new HashMap<Integer, List<VEvent>>();
-        for (final VEvent ve : getVevents(pdate)) {
-            final List<Period> periods = ve.getPeriods(pdate);
-            if ((periods != null) && !periods.isEmpty()) {
-                for (final Period p : periods) {
-                    final Map<String, VEvent> vevents = new HashMap<String, VEvent>();
-                    for (final Integer day : p.getWeekDays(date)) {
-                        if (week_events.containsKey(day)) {
-                            for (final VEvent existant_ve : week_events.get(day)) {
-                                vevents.put(existant_ve.getUid(), existant_ve);
-                            }
-                        }
-                        if (!vevents.containsKey(ve.getUid())) {
-                            vevents.put(ve.getUid(), ve);
-                        }
-                        week_events.put(day, new ArrayList<VEvent>(vevents.values()));
-                    }
-                }
-            }
-        }
-        return week_events;
+        return getVeventsGridForWeek(date).toMap();
     }
 
     /**
@@ -427,7 +675,8 @@ public class VCalendar implements Serializable {
     }
 
     /**
-     * Return a VFreeBusy object for a specific time period.
+     * Return a VFreeBusy object for a specific time period, with the coalesced busy time of the
+     * VEvent objects grouped by free/busy type.
      * 
      * @param period
      * @return
@@ -436,14 +685,9 @@ public class VCalendar implements Serializable {
         final VFreeBusy vfb = new VFreeBusy(this.vtimezone);
         vfb.setDTStart(period.getStart());
         vfb.setDTEnd(period.getEnd());
-        for (final Entry<String, VEvent> e : this.vevent.entrySet()) {
-            final VEvent ve = e.getValue();
-            final List<Period> periods = ve.getPeriodsBetween(period.getStart(), period.getEnd());
-            if ((periods != null) && !periods.isEmpty()) {
-                for (final Period p : periods) {
-                    vfb.addBusy(p);
-                }
-            }
+        final BusyIntervals busy = getBusyIntervals(period);
+        for (int i = 0; i < busy.size(); i++) {
+            vfb.addBusy(busy.getPeriod(i), busy.getType(i));
         }
         /*
          * for(String id : vtodo.keySet()) { VTodo vt = vtodo.get(id); List<Period> periods =
@@ -453,6 +697,50 @@ public class VCalendar implements Serializable {
         return vfb;
     }
 
+    /**
+     * Return the busy time of the VEvent objects in a specific time period as sorted intervals
+     * that do not overlap. Transparent and cancelled events are left out, and tentative events are
+     * BUSY-TENTATIVE unless a confirmed event overlaps them.
+     * 
+     * @param period
+     * @return
+     */
+    public BusyIntervals getBusyIntervals(final Period period) {
+        return getBusyIntervals(period.getStart().getTimeInMillis(), period.getEnd().getTimeInMillis());
+    }
+
+    BusyIntervals getBusyIntervals(final long start, final long end) {
+        return BusyIntervals.build(expand(getVeventCandidates(VAction.getSecond(start), VAction.getSecond(end)),
+                start, end, false));
+    }
+
+    /**
+     * Return the pairs of overlapping occurrences of different VEvent objects in a specific time
+     * period, leaving out transparent and cancelled events.
+     * 
+     * @param period
+     * @return
+     */
+    public CalendarConflicts findConflicts(final Period period) {
+        return findConflicts(period, true, true);
+    }
+
+    /**
+     * Return the pairs of overlapping occurrences of different VEvent objects in a specific time
+     * period. Cancelled instances of recurring events are never expanded, whatever
+     * <code>ignoreCancelled</code> says.
+     * 
+     * @param period
+     * @param ignoreTransparent
+     * @param ignoreCancelled
+     * @return
+     */
+    public CalendarConflicts findConflicts(final Period period, final boolean ignoreTransparent,
+            final boolean ignoreCancelled) {
+        return CalendarConflicts.find(expand(getVeventCandidates(period), period), ignoreTransparent,
+                ignoreCancelled);
+    }
+
     /**
      * Return a specific VJournal object
      * 
@@ -467,6 +755,25 @@ public class VCalendar implements Serializable {
         throw new VCalendarException("vjournal not found");
     }
 
+    /**
+     * Return the UIDs of the VJournal objects matching a filter on their categories, status,
+     * organizers and attendees. The index is built on the first query and kept up to date by the
+     * add, update and remove methods.
+     * 
+     * @param filter
+     * @return
+     */
+    public synchronized Set<String> getVjournalUids(final ComponentFilter filter) {
+        if (this.vjournalProperties == null) {
+            this.vjournalProperties = new PropertyIndex<VJournal>(this.vjournal.values());
+        }
+        final Set<String> uids = new HashSet<String>();
+        for (final VJournal component : this.vjournalProperties.get(filter)) {
+            uids.add(component.getUid());
+        }
+        return uids;
+    }
+
     /**
      * Return all VJournal objects
      * 
@@ -485,17 +792,7 @@ public class VCalendar implements Serializable {
      * @return
      */
     public List<VJournal> getVjournals(final Period period) {
-        final Map<String, VJournal> vevents = new HashMap<String, VJournal>();
-        for (final Entry<String, VJournal> e : this.vjournal.entrySet()) {
-            final VJournal vj = e.getValue();
-            final List<Period> _periods = vj.getPeriods(period);
-            if ((_periods != null) && !_periods.isEmpty()) {
-                if (!vevents.containsKey(vj.getUid())) {
-                    vevents.put(vj.getUid(), vj);
-                }
-            }
-        }
-        return new ArrayList<VJournal>(vevents.values());
+        return expand(getVjournalCandidates(period), period).getComponents(VJournal.class);
     }
 
     /**
@@ -518,6 +815,19 @@ public class VCalendar implements Serializable {
         return getVjournals(Period.getMonthPeriod(date));
     }
 
+    /**
+     * Return the VJournal objects of the month starting at the calendar object, by month day. The
+     * calendar object is not modified.
+     * 
+     * @param date
+     * @return
+     */
+    public CalendarGrid<VJournal> getVjournalsGridForMonth(final Calendar date) {
+        final Period period = getViewPeriod(date, Calendar.MONTH);
+        return getGrid(getVjournalCandidates(period), VJournal.class, period, Calendar.DAY_OF_MONTH,
+                Calendar.DAY_OF_MONTH);
+    }
+
     /**
      * Return a VJournal map related to the calendar object month. The key of the map is an
      * <code>Integer</code> with the month day.
@@ -526,29 +836,7 @@ public class VCalendar implements Serializable {
      * @return
      */
     public Map<Integer, List<VJournal>> getVjournalsMapForMonth(final Calendar date) {
-        final Period pdate = Period.getMonthPeriod(date);
-        final List<VJournal> journals = getVjournals(pdate);
-        final Map<Integer, List<VJournal>> month_journals = new HashMap<Integer, List<VJournal>>();
-        for (final VJournal vj : journals) {
-            final List<Period> periods = vj.getPeriods(pdate);
-            if ((periods != null) && !periods.isEmpty()) {
-                for (final Period p : periods) {
-                    final Map<String, VJournal> vjournals = new HashMap<String, VJournal>();
-                    for (final Integer day : p.getMonthDays(date)) {
-                        if (month_journals.containsKey(day)) {
-                            for (final VJournal existant_vj : month_journals.get(day)) {
-                                vjournals.put(existant_vj.getUid(), existant_vj);
-                            }
-                        }
-                        if (!vjournals.containsKey(vj.getUid())) {
-                            vjournals.put(vj.getUid(), vj);
-                        }
-                        month_journals.put(day, new ArrayList<VJournal>(vjournals.values()));
-                    }
-                }
-            }
-        }
-        return month_journals;
+        return getVjournalsGridForMonth(date).toMap();
     }
 
     /**
@@ -565,6 +853,39 @@ public class VCalendar implements Serializable {
         throw new VCalendarException("vtodo not found");
     }
 
+    /**
+     * Return the UIDs of the VTodo objects matching a filter on their categories, status,
+     * organizers and attendees. The index is built on the first query and kept up to date by the
+     * add, update and remove methods.
+     * 
+     * @param filter
+     * @return
+     */
+    public synchronized Set<String> getVtodoUids(final ComponentFilter filter) {
+        if (this.vtodoProperties == null) {
+            this.vtodoProperties = new PropertyIndex<VTodo>(this.vtodo.values());
+        }
+        final Set<String> uids = new HashSet<String>();
+        for (final VTodo component : this.vtodoProperties.get(filter)) {
+            uids.add(component.getUid());
+        }
+        return uids;
+    }
+
+    /**
+     * Return the modified instances of VTodo objects missing from the calendar that could not be
+     * attached, because another instance with the same UID already stands in for the VTodo.
+     * 
+     * @return
+     */
+    public List<VTodo> getDetachedVtodos() {
+        final List<VTodo> values = new ArrayList<VTodo>();
+        if (this.vtodoDetached != null) {
+            values.addAll(this.vtodoDetached);
+        }
+        return values;
+    }
+
     /**
      * Return all VTodo objects
      * 
@@ -583,17 +904,7 @@ public class VCalendar implements Serializable {
      * @return
      */
     public List<VTodo> getVtodos(final Period period) {
-        final Map<String, VTodo> vevents = new HashMap<String, VTodo>();
-        for (final Entry<String, VTodo> e : this.vtodo.entrySet()) {
-            final VTodo vt = e.getValue();
-            final List<Period> periods = vt.getPeriods(period);
-            if ((periods != null) && !periods.isEmpty()) {
-                if (!vevents.containsKey(vt.getUid())) {
-                    vevents.put(vt.getUid(), vt);
-                }
-            }
-        }
-        return new ArrayList<VTodo>(vevents.values());
+        return expand(getVtodoCandidates(period), period).getComponents(VTodo.class);
     }
 
     /**
@@ -643,6 +954,22 @@ public class VCalendar implements Serializable {
         return active_status.contains(status.toUpperCase());
     }
 
+    /**
+     * Return the first <code>k</code> occurrences of the VEvent objects starting after an instant,
+     * sorted by start. Each event is expanded lazily, only as far as the occurrences returned.
+     * 
+     * @param after
+     * @param k
+     * @return
+     */
+    public CalendarOccurrences nextOccurrences(final long after, final int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("invalid number of occurrences");
+        }
+        final long start = VAction.getSecond(after);
+        return AgendaCursor.getStartingAfter(getVeventCandidates(start, Long.MAX_VALUE), after).next(k);
+    }
+
     private void nextLine() throws IOException {
         this.line = null;
         if ((this.buffer != null) && this.buffer.ready()) {
@@ -652,6 +979,8 @@ public class VCalendar implements Serializable {
 
     private void parse() throws IOException, VCalendarException {
         this.vtimezone = new VTimeZone(null);
+        this.veventInstances = new ArrayList<VEvent>();
+        this.vtodoInstances = new ArrayList<VTodo>();
         for (nextLine(); this.line != null; nextLine()) {
             if (this.line.startsWith("METHOD")) {
                 this.method = this.line.substring(this.line.indexOf(":") + 1);
@@ -682,6 +1011,35 @@ public class VCalendar implements Serializable {
                 parseVJournal();
             }
         }
+        this.veventDetached = addInstances(this.vevent, this.veventInstances);
+        this.vtodoDetached = addInstances(this.vtodo, this.vtodoInstances);
+        this.veventInstances = null;
+        this.vtodoInstances = null;
+    }
+
+    /**
+     * Adds the instances with a RECURRENCE-ID to the component with the same UID. An instance
+     * whose component is missing is kept in its place, and the other instances with its UID are
+     * never attached to it.
+     * @return the instances left detached, or null if there are none
+     */
+    private static <T extends VAction> List<T> addInstances(final Map<String, T> components,
+            final List<T> instances) throws VCalendarException {
+        List<T> detached = null;
+        for (final T instance : instances) {
+            final T master = components.get(instance.getUid());
+            if (master == null) {
+                components.put(instance.getUid(), instance);
+            } else if (master.hasRecurrence()) {
+                if (detached == null) {
+                    detached = new ArrayList<T>();
+                }
+                detached.add(instance);
+            } else {
+                master.addOverride(instance);
+            }
+        }
+        return detached;
     }
 
     private RRule parseRRuleFromLine(final String line) throws VCalendarException {
@@ -706,10 +1064,16 @@ public class VCalendar implements Serializable {
                 }
             } else if (part.startsWith("UNTIL=")) {
                 part = part.substring(part.indexOf("=") + 1);
+                final Calendar until;
                 if (this.vtimezone != null) {
-                    rrule.setUntil(DateTime.getCalendarFromString(this.vtimezone.getTimeZone(), part));
+                    until = DateTime.getCalendarFromString(this.vtimezone.getTimeZone(), part);
+                } else {
+                    until = DateTime.getCalendarFromString(null, part);
+                }
+                if (part.indexOf("T") == -1) {
+                    rrule.setUntilDate(until);
                 } else {
-                    rrule.setUntil(DateTime.getCalendarFromString(null, part));
+                    rrule.setUntil(until);
                 }
             } else if (part.startsWith("WKST=")) {
                 part = part.substring(part.indexOf("=") + 1);
@@ -832,10 +1196,8 @@ public class VCalendar implements Serializable {
         final VEvent ve = new VEvent();
         for (nextLine(); this.line != null; nextLine()) {
             if (this.line.startsWith("END:VEVENT")) {
-                if (this.vevent.containsKey(ve.getUid())) {
-                    if (!this.vevent.get(ve.getUid()).hasRecurrence()) {
-                        this.vevent.put(ve.getUid(), ve);
-                    }
+                if (ve.hasRecurrence()) {
+                    this.veventInstances.add(ve);
                 } else {
                     this.vevent.put(ve.getUid(), ve);
                 }
@@ -924,7 +1286,9 @@ public class VCalendar implements Serializable {
                 } else if (this.line.startsWith("EXDATE") && (this.line.indexOf(":") > 0)) {
                     try {
                         this.line = this.line.substring(this.line.indexOf(":") + 1);
-                        ve.addExDate(DateTime.getCalendarFromString(this.vtimezone.getTimeZone(), this.line));
+                        for (final String date : this.line.split(",")) {
+                            ve.addExDate(DateTime.getCalendarFromString(this.vtimezone.getTimeZone(), date.trim()));
+                        }
                     } catch (final Exception e) {
                         throw new VCalendarException("VCALENDAR::VEVENT::EXDATE::error::" + this.line);
                     }
@@ -935,6 +1299,13 @@ public class VCalendar implements Serializable {
                     } catch (final Exception e) {
                         throw new VCalendarException("VCALENDAR::VEVENT::STATUS::error::" + this.line);
                     }
+                } else if (this.line.startsWith("TRANSP") && (this.line.indexOf(":") > 0)) {
+                    try {
+                        this.line = this.line.substring(this.line.indexOf(":") + 1);
+                        ve.setTransparency(this.line);
+                    } catch (final Exception e) {
+                        throw new VCalendarException("VCALENDAR::VEVENT::TRANSP::error::" + this.line);
+                    }
                 } else if (this.line.startsWith("CLASS") && (this.line.indexOf(":") > 0)) {
                     try {
                         this.line = this.line.substring(this.line.indexOf(":") + 1);
@@ -956,6 +1327,13 @@ public class VCalendar implements Serializable {
                     } catch (final Exception e) {
                         throw new VCalendarException("VCALENDAR::VEVENT::ORGANIZER::error::" + this.line);
                     }
+                } else if (this.line.startsWith("RECURRENCE-ID") && (this.line.indexOf(":") > 0)) {
+                    try {
+                        this.line = this.line.substring(this.line.indexOf(":") + 1);
+                        ve.setRecurrenceId(DateTime.getCalendarFromString(this.vtimezone.getTimeZone(), this.line));
+                    } catch (final Exception e) {
+                        throw new VCalendarException("VCALENDAR::VEVENT::RECURRENCE-ID::error::" + this.line);
+                    }
                 } else if (this.line.startsWith("RRULE") && (this.line.indexOf(":") > 0)) {
                     try {
                         this.line = this.line.substring(this.line.indexOf(":") + 1);
@@ -1005,6 +1383,14 @@ public class VCalendar implements Serializable {
                     throw new VCalendarException("VCALENDAR::VFREEBUSY::ORGANIZER::error::" + this.line);
                 }
             } else if (this.line.startsWith("FREEBUSY")) {
+                String type = VFreeBusy.BUSY;
+                final int fbtype = this.line.indexOf("FBTYPE=");
+                if (fbtype > 0 && fbtype < this.line.indexOf(":")) {
+                    type = this.line.substring(fbtype + 7, this.line.indexOf(":"));
+                    if (type.indexOf(";") >= 0) {
+                        type = type.substring(0, type.indexOf(";"));
+                    }
+                }
                 this.line = this.line.substring(this.line.indexOf(":") + 1);
                 try {
                     final StringTokenizer st = new StringTokenizer(this.line, ",");
@@ -1016,14 +1402,14 @@ public class VCalendar implements Serializable {
                                         t.substring(0, t.indexOf("/")));
                                 final Calendar end = DateTime.getCalendarFromString(this.vtimezone.getTimeZone(),
                                         t.substring(t.indexOf("/") + 1));
-                                vfb.addBusy(new Period(start, end));
+                                vfb.addBusy(new Period(start, end), type);
                             } catch (final Exception e) {
                                 final Calendar start = DateTime.getCalendarFromString(this.vtimezone.getTimeZone(),
                                         t.substring(0, t.indexOf("/")));
                                 final Duration d = new Duration(t.substring(t.indexOf("/") + 1));
                                 final Calendar end = Calendar.getInstance();
                                 end.setTimeInMillis(start.getTimeInMillis() + d.getMilliseconds());
-                                vfb.addBusy(new Period(start, end));
+                                vfb.addBusy(new Period(start, end), type);
                             }
                         }
                     }
@@ -1171,7 +1557,11 @@ public class VCalendar implements Serializable {
                 nextLine();
             }
             if (this.line.indexOf("END:VTODO") != -1) {
-                this.vtodo.put(vt.getUid(), vt);
+                if (vt.hasRecurrence()) {
+                    this.vtodoInstances.add(vt);
+                } else {
+                    this.vtodo.put(vt.getUid(), vt);
+                }
                 break;
             } else if (this.line.startsWith("BEGIN:VALARM")) {
                 final VAlarm va = new VAlarm();
@@ -1285,7 +1675,9 @@ public class VCalendar implements Serializable {
                 } else if (this.line.startsWith("EXDATE") && (this.line.indexOf(":") > 0)) {
                     try {
                         this.line = this.line.substring(this.line.indexOf(":") + 1);
-                        vt.addExDate(DateTime.getCalendarFromString(this.vtimezone.getTimeZone(), this.line));
+                        for (final String date : this.line.split(",")) {
+                            vt.addExDate(DateTime.getCalendarFromString(this.vtimezone.getTimeZone(), date.trim()));
+                        }
                     } catch (final Exception e) {
                         throw new VCalendarException("VCALENDAR::VTODO::EXDATE::error::" + this.line);
                     }
@@ -1327,6 +1719,13 @@ public class VCalendar implements Serializable {
                     } catch (final Exception e) {
                         throw new VCalendarException("VCALENDAR::VTODO::ORGANIZER::error::" + this.line);
                     }
+                } else if (this.line.startsWith("RECURRENCE-ID") && (this.line.indexOf(":") > 0)) {
+                    try {
+                        this.line = this.line.substring(this.line.indexOf(":") + 1);
+                        vt.setRecurrenceId(DateTime.getCalendarFromString(this.vtimezone.getTimeZone(), this.line));
+                    } catch (final Exception e) {
+                        throw new VCalendarException("VCALENDAR::VTODO::RECURRENCE-ID::error::" + this.line);
+                    }
                 } else if (this.line.startsWith("RRULE") && (this.line.indexOf(":") > 0)) {
                     try {
                         this.line = this.line.substring(this.line.indexOf(":") + 1);
@@ -1348,7 +1747,13 @@ public class VCalendar implements Serializable {
      * @return
      */
     public boolean removeVevent(final String uid) {
-        if (this.vevent.remove(uid) != null) {
+        final VEvent removed = this.vevent.remove(uid);
+        if (removed != null) {
+            synchronized (this) {
+                reindex(this.veventIndex, removed, null);
+                reindex(this.veventProperties, removed, null);
+                reindex(this.veventText, removed, null);
+            }
             return true;
         }
         return false;
@@ -1361,7 +1766,13 @@ public class VCalendar implements Serializable {
      * @return
      */
     public boolean removeVJournal(final String uid) {
-        if (this.vjournal.remove(uid) != null) {
+        final VJournal removed = this.vjournal.remove(uid);
+        if (removed != null) {
+            synchronized (this) {
+                reindex(this.vjournalIndex, removed, null);
+                reindex(this.vjournalProperties, removed, null);
+                reindex(this.vjournalText, removed, null);
+            }
             return true;
         }
         return false;
@@ -1374,12 +1785,69 @@ public class VCalendar implements Serializable {
      * @return
      */
     public boolean removeVtodo(final String uid) {
-        if (this.vtodo.remove(uid) != null) {
+        final VTodo removed = this.vtodo.remove(uid);
+        if (removed != null) {
+            synchronized (this) {
+                reindex(this.vtodoIndex, removed, null);
+                reindex(this.vtodoProperties, removed, null);
+                reindex(this.vtodoText, removed, null);
+            }
             return true;
         }
         return false;
     }
 
+    /**
+     * Return up to <code>limit</code> VEvent objects containing every word of the query in their
+     * summary, location or description, best matches first. A word ending with <code>*</code> matches
+     * every word starting with it. The index is built on the first search and kept up to date by the
+     * add, update and remove methods.
+     * 
+     * @param query
+     * @param limit
+     * @return
+     */
+    public synchronized List<VEvent> searchVevents(final String query, final int limit) {
+        if (this.veventText == null) {
+            this.veventText = new TextIndex<VEvent>(this.vevent.values());
+        }
+        return this.veventText.search(query, limit);
+    }
+
+    /**
+     * Return up to <code>limit</code> VJournal objects containing every word of the query in their
+     * summary or description, best matches first. A word ending with <code>*</code> matches every
+     * word starting with it. The index is built on the first search and kept up to date by the add,
+     * update and remove methods.
+     * 
+     * @param query
+     * @param limit
+     * @return
+     */
+    public synchronized List<VJournal> searchVjournals(final String query, final int limit) {
+        if (this.vjournalText == null) {
+            this.vjournalText = new TextIndex<VJournal>(this.vjournal.values());
+        }
+        return this.vjournalText.search(query, limit);
+    }
+
+    /**
+     * Return up to <code>limit</code> VTodo objects containing every word of the query in their
+     * summary, location or description, best matches first. A word ending with <code>*</code> matches
+     * every word starting with it. The index is built on the first search and kept up to date by the
+     * add, update and remove methods.
+     * 
+     * @param query
+     * @param limit
+     * @return
+     */
+    public synchronized List<VTodo> searchVtodos(final String query, final int limit) {
+        if (this.vtodoText == null) {
+            this.vtodoText = new TextIndex<VTodo>(this.vtodo.values());
+        }
+        return this.vtodoText.search(query, limit);
+    }
+
     /**
      * Set icalendar file
      * 
@@ -1407,6 +1875,17 @@ public class VCalendar implements Serializable {
         this.vtimezone = timezone;
     }
 
+    /**
+     * Limit the occurrences and intervals examined per component by each query on the calendar.
+     * Components with a budget of their own keep it. A null budget, the default, removes the
+     * limits.
+     * 
+     * @param budget
+     */
+    public void setExpansionBudget(final ExpansionBudget budget) {
+        this.expansionBudget = budget;
+    }
+
     @Override
     public String toString() {
         final String CRLF = "\r\n";
@@ -1428,10 +1907,22 @@ public class VCalendar implements Serializable {
 
         for (final VEvent ve : getVevents()) {
             sb.append(ve.toString(this.vtimezone));
+            for (final VAction instance : ve.getOverrides()) {
+                sb.append(instance.toString(this.vtimezone));
+            }
+        }
+        for (final VEvent ve : getDetachedVevents()) {
+            sb.append(ve.toString(this.vtimezone));
         }
 
         for (final VTodo vt : getVtodos()) {
             sb.append(vt.toString(this.vtimezone));
+            for (final VAction instance : vt.getOverrides()) {
+                sb.append(instance.toString(this.vtimezone));
+            }
+        }
+        for (final VTodo vt : getDetachedVtodos()) {
+            sb.append(vt.toString(this.vtimezone));
         }
 
         for (final VJournal vj : getVjournals()) {
@@ -1454,7 +1945,12 @@ public class VCalendar implements Serializable {
         if (!this.vevent.containsKey(ve.getUid())) {
             throw new VCalendarException("VEvent not found");
         }
-        this.vevent.put(ve.getUid(), ve);
+        final VEvent previous = this.vevent.put(ve.getUid(), ve);
+        synchronized (this) {
+            reindex(this.veventIndex, previous, ve);
+            reindex(this.veventProperties, previous, ve);
+            reindex(this.veventText, previous, ve);
+        }
     }
 
     /**
@@ -1467,7 +1963,12 @@ public class VCalendar implements Serializable {
         if (!this.vjournal.containsKey(vj.getUid())) {
             throw new VCalendarException("VJournal not found");
         }
-        this.vjournal.put(vj.getUid(), vj);
+        final VJournal previous = this.vjournal.put(vj.getUid(), vj);
+        synchronized (this) {
+            reindex(this.vjournalIndex, previous, vj);
+            reindex(this.vjournalProperties, previous, vj);
+            reindex(this.vjournalText, previous, vj);
+        }
     }
 
     /**
@@ -1480,7 +1981,12 @@ public class VCalendar implements Serializable {
         if (!this.vtodo.containsKey(vt.getUid())) {
             throw new VCalendarException("VTodo not found");
         }
-        this.vtodo.put(vt.getUid(), vt);
+        final VTodo previous = this.vtodo.put(vt.getUid(), vt);
+        synchronized (this) {
+            reindex(this.vtodoIndex, previous, vt);
+            reindex(this.vtodoProperties, previous, vt);
+            reindex(this.vtodoText, previous, vt);
+        }
     }
 
     /**
@@ -23,6 +23,7 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -32,6 +33,7 @@ import java.util.List;
 public class VEvent extends VAction implements Serializable, Cloneable {
     public static final long serialVersionUID = 89472947947290420L;
     private String location;
+    private String transparency;
     private List<VAlarm> alarms;
 
     public VEvent() {
@@ -40,6 +42,25 @@ public class VEvent extends VAction implements Serializable, Cloneable {
         alarms = new ArrayList<VAlarm>();
     }
 
+    private VEvent(final VEvent master, final long start, final long end, final long recurrenceId) {
+        super(master, start, end, recurrenceId);
+        location = master.location;
+        transparency = master.transparency;
+        alarms = Collections.unmodifiableList(master.alarms);
+    }
+
+    /**
+     * Returns a read-only view of the occurrence between <code>start</code> and <code>end</code>,
+     * taken from the modified instance that starts there if <code>override</code> is true.
+     */
+    VEvent getOccurrence(final long start, final long end, final boolean override) {
+        VAction instance = override ? getInstance(start) : this;
+        if (instance == this) {
+            return new VEvent(this, start, end, start);
+        }
+        return new VEvent((VEvent) instance, start, end, instance.recurrenceId);
+    }
+
     public boolean isAllDayEvent() {
         long difference = dtend - dtstart;
         if (difference < (86400000 + 1000) &&
@@ -72,6 +93,7 @@ public class VEvent extends VAction implements Serializable, Cloneable {
     public void setDTStart(final Calendar dtstart) {
         if (dtstart != null) {
             this.dtstart = dtstart.getTimeInMillis();
+            invalidateOccurrences();
         }
     }
 
@@ -90,6 +112,7 @@ public class VEvent extends VAction implements Serializable, Cloneable {
         } else {
             this.dtend = 0;
         }
+        invalidateOccurrences();
     }
 
     public String getLocation() {
@@ -109,6 +132,27 @@ public class VEvent extends VAction implements Serializable, Cloneable {
         this.status = status.toUpperCase();
     }
 
+    public String getTransparency() {
+        return transparency;
+    }
+
+    /**
+     * Returns true if the event does not block time on free/busy searches.
+     *
+     * @return
+     */
+    public boolean isTransparent() {
+        return "TRANSPARENT".equals(transparency);
+    }
+
+    public void setTransparency(final String transparency) throws VCalendarException {
+        List<String> values = new ArrayList<String>(Arrays.asList(new String[] { "OPAQUE", "TRANSPARENT" }));
+        if (!values.contains(transparency.toUpperCase())) {
+            throw new VCalendarException("invalid transparency");
+        }
+        this.transparency = transparency.toUpperCase();
+    }
+
     public List<VAlarm> getActiveValarmsForDate(final Calendar event_date, final Calendar date) {
         List<VAlarm> alarms = new ArrayList<VAlarm>();
         return alarms;
@@ -165,6 +209,11 @@ public class VEvent extends VAction implements Serializable, Cloneable {
             sb.append(status);
             sb.append(VCalendar.CRLF);
         }
+        if (transparency != null) {
+            sb.append("TRANSP:");
+            sb.append(transparency);
+            sb.append(VCalendar.CRLF);
+        }
         if (!categories.isEmpty()) {
             sb.append("CATEGORIES:");
             for (int i = 0; i < categories.size(); i++) {
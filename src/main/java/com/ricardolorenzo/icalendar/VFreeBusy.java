@@ -20,20 +20,29 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
+ * Free/busy time of a calendar. Busy periods are grouped by their FBTYPE.
+ *
  * @author Ricardo_Lorenzo
  * 
  */
 public class VFreeBusy implements Serializable {
-    public static final long serialVersionUID = 89472947947297236L;
+    public static final long serialVersionUID = 89472947947297237L;
+    public static final String FREE = "FREE";
+    public static final String BUSY = "BUSY";
+    public static final String BUSY_UNAVAILABLE = "BUSY-UNAVAILABLE";
+    public static final String BUSY_TENTATIVE = "BUSY-TENTATIVE";
 
     private VTimeZone tz;
     private long dtstart;
     private long dtend;
-    private List<Period> freeBusy;
+    private Map<String, List<Period>> freeBusy;
     protected Map<String, Person> organizer;
     protected Map<String, Person> attendee;
 
@@ -43,21 +52,40 @@ public class VFreeBusy implements Serializable {
         } else {
             this.tz = tz;
         }
-        freeBusy = new ArrayList<Period>();
+        freeBusy = new LinkedHashMap<String, List<Period>>();
         attendee = new HashMap<String, Person>();
         organizer = new HashMap<String, Person>();
     }
 
     public void addBusy(final Calendar start, final Calendar end) {
-        freeBusy.add(new Period(start, end));
+        addBusy(new Period(start, end));
     }
 
     public void addBusy(final Period p) {
-        freeBusy.add(p);
+        addBusy(p, BUSY_UNAVAILABLE);
+    }
+
+    /**
+     * Adds a period with a free/busy type, such as <code>BUSY</code> or
+     * <code>BUSY_TENTATIVE</code>.
+     *
+     * @param p
+     * @param type
+     */
+    public void addBusy(final Period p, final String type) {
+        final String key = type.toUpperCase();
+        List<Period> periods = freeBusy.get(key);
+        if (periods == null) {
+            periods = new ArrayList<Period>();
+            freeBusy.put(key, periods);
+        }
+        periods.add(p);
     }
 
     public void addAllBusy(final List<Period> busy) {
-        freeBusy.addAll(busy);
+        for (Period p : busy) {
+            addBusy(p);
+        }
     }
 
     public Calendar getDTStart() {
@@ -75,8 +103,41 @@ public class VFreeBusy implements Serializable {
         return _c;
     }
 
+    /**
+     * Returns a copy of the periods of every free/busy type. Periods added to the list are not
+     * added to this object; use <code>addBusy</code> instead.
+     *
+     * @return
+     */
     public List<Period> getFreeBusy() {
-        return freeBusy;
+        List<Period> periods = new ArrayList<Period>();
+        for (List<Period> values : freeBusy.values()) {
+            periods.addAll(values);
+        }
+        return periods;
+    }
+
+    /**
+     * Returns a copy of the periods of a free/busy type.
+     *
+     * @param type
+     * @return
+     */
+    public List<Period> getFreeBusy(final String type) {
+        List<Period> periods = freeBusy.get(type.toUpperCase());
+        if (periods == null) {
+            return new ArrayList<Period>();
+        }
+        return new ArrayList<Period>(periods);
+    }
+
+    /**
+     * Returns a copy of the free/busy types with periods, in the order they were first added.
+     *
+     * @return
+     */
+    public Set<String> getFreeBusyTypes() {
+        return new LinkedHashSet<String>(freeBusy.keySet());
     }
 
     public List<String> getAtendeesMailTo() {
@@ -164,9 +225,11 @@ public class VFreeBusy implements Serializable {
             sb.append(VAction.getDate(tz, dtend));
             sb.append(VCalendar.CRLF);
         }
-        if (!freeBusy.isEmpty()) {
-            for (Period busy : freeBusy) {
-                sb.append("FREEBUSY;FBTYPE=BUSY-UNAVAILABLE:");
+        for (Map.Entry<String, List<Period>> type : freeBusy.entrySet()) {
+            for (Period busy : type.getValue()) {
+                sb.append("FREEBUSY;FBTYPE=");
+                sb.append(type.getKey());
+                sb.append(":");
                 sb.append(DateTime.getUTCTime(busy.getStart()));
                 sb.append("/");
                 sb.append(DateTime.getUTCTime(busy.getEnd()));
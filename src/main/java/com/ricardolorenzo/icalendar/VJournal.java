@@ -52,6 +52,7 @@ public class VJournal extends VAction implements Serializable, Cloneable {
 
     public void setDTStart(final Calendar dtstart) {
         this.dtstart = dtstart.getTimeInMillis();
+        invalidateOccurrences();
     }
 
     @Override
@@ -62,6 +63,7 @@ public class VJournal extends VAction implements Serializable, Cloneable {
     @Override
     public void setRRule(final RRule rrule) {
         this.rrule = rrule;
+        invalidateOccurrences();
     }
 
     public void setStatus(final String status) throws Exception {
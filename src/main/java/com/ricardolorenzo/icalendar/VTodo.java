@@ -23,6 +23,7 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -41,6 +42,25 @@ public class VTodo extends VAction implements Serializable, Cloneable {
         alarms = new ArrayList<VAlarm>();
     }
 
+    private VTodo(final VTodo master, final long start, final long end, final long recurrenceId) {
+        super(master, start, end, recurrenceId);
+        location = master.location;
+        percent = master.percent;
+        alarms = Collections.unmodifiableList(master.alarms);
+    }
+
+    /**
+     * Returns a read-only view of the occurrence between <code>start</code> and <code>end</code>,
+     * taken from the modified instance that starts there if <code>override</code> is true.
+     */
+    VTodo getOccurrence(final long start, final long end, final boolean override) {
+        VAction instance = override ? getInstance(start) : this;
+        if (instance == this) {
+            return new VTodo(this, start, end, start);
+        }
+        return new VTodo((VTodo) instance, start, end, instance.recurrenceId);
+    }
+
     public List<VAlarm> getAlarms() {
         return alarms;
     }
@@ -83,6 +103,7 @@ public class VTodo extends VAction implements Serializable, Cloneable {
 
     public void setDue(final Calendar due) {
         this.due = due.getTimeInMillis();
+        invalidateOccurrences();
     }
 
     public Calendar getDTStart() {
@@ -100,6 +121,7 @@ public class VTodo extends VAction implements Serializable, Cloneable {
 
     public void setDTStart(final Calendar dtstart) {
         this.dtstart = dtstart.getTimeInMillis();
+        invalidateOccurrences();
     }
 
     public String getLocation() {
@@ -0,0 +1,112 @@
+/*
+ * AvailabilityBenchmark class
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ *
+ * Author: Ricardo Lorenzo <unshakablespirit@gmail.com>
+ */
+package com.ricardolorenzo.icalendar;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the availability of a week across many calendars computed one
+ * <code>VFreeBusy</code> at a time with <code>Availability</code>. Every calendar has a few weekly
+ * meetings and about forty single events.
+ *
+ * Run with <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.ricardolorenzo.icalendar.AvailabilityBenchmark</code>.
+ *
+ * @author Ricardo_Lorenzo
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class AvailabilityBenchmark {
+    @Param({ "10", "100", "1000" })
+    public int calendars;
+
+    private List<VCalendar> values;
+    private Period window;
+
+    @Setup
+    public void setUp() throws VCalendarException {
+        Random random = new Random(calendars);
+        values = new ArrayList<VCalendar>(calendars);
+        for (int c = 0; c < calendars; c++) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("BEGIN:VCALENDAR\n");
+            for (int i = 0; i < 44; i++) {
+                int day = 1 + random.nextInt(28);
+                int hour = 8 + random.nextInt(10);
+                sb.append("BEGIN:VEVENT\n");
+                sb.append("UID:benchmark-" + c + "-" + i + "\n");
+                sb.append(String.format("DTSTART:202403%02dT%02d0000\n", day, hour));
+                sb.append(String.format("DTEND:202403%02dT%02d3000\n", day, hour));
+                if (i < 4) {
+                    sb.append("RRULE:FREQ=WEEKLY\n");
+                }
+                sb.append("END:VEVENT\n");
+            }
+            sb.append("END:VCALENDAR\n");
+            values.add(new VCalendar(sb.toString()));
+        }
+
+        Calendar start = Calendar.getInstance();
+        start.clear();
+        start.set(2024, Calendar.MARCH, 11);
+        Calendar end = (Calendar) start.clone();
+        end.add(Calendar.DAY_OF_MONTH, 7);
+        window = new Period(start, end);
+    }
+
+    @Benchmark
+    public List<Period> freeBusy() {
+        List<Period> busy = new ArrayList<Period>();
+        for (VCalendar calendar : values) {
+            busy.addAll(calendar.getVFreeBusy(window).getFreeBusy());
+        }
+        return busy;
+    }
+
+    @Benchmark
+    public Availability availability() {
+        return Availability.compute(values, window);
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(AvailabilityBenchmark.class.getSimpleName()).build()).run();
+    }
+}
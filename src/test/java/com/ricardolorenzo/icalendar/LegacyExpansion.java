@@ -0,0 +1,542 @@
+/*
+ * LegacyExpansion class
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ *
+ * Author: Ricardo Lorenzo <unshakablespirit@gmail.com>
+ */
+package com.ricardolorenzo.icalendar;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <code>Calendar</code> based expansion of a component used before <code>RecurrenceEngine</code>,
+ * kept as the baseline of <code>RecurrenceBenchmark</code>. It does not follow the RFC 5545 BY*
+ * rules, and it walks every interval from DTSTART, so its cost grows with the age of the event.
+ *
+ * @author Ricardo_Lorenzo
+ *
+ */
+class LegacyExpansion {
+    private final VAction action;
+    private final RRule rrule;
+    private final long dtstart;
+    private final long dtend;
+    private final long due;
+
+    LegacyExpansion(final VAction action) {
+        this.action = action;
+        this.rrule = action.rrule;
+        this.dtstart = action.dtstart;
+        this.dtend = action.dtend;
+        this.due = action.due;
+    }
+
+    /**
+     * Returns the occurrences between <code>start_date</code> and <code>end_date</code>.
+     * @param start_date
+     * @param end_date
+     * @return
+     */
+    List<Period> getPeriodsBetween(final Calendar start_date, final Calendar end_date) {
+        Map<Long, Period> dates = new HashMap<Long, Period>();
+        Calendar start = (Calendar) start_date.clone();
+        Calendar end = (Calendar) end_date.clone();
+        start.set(Calendar.MILLISECOND, 0);
+        end.set(Calendar.MILLISECOND, 0);
+
+        /*
+         * Occurrences counted so far by this expansion, kept per call so concurrent expansions of
+         * the same component do not share it.
+         */
+        final int[] count = new int[] { 0 };
+
+        if (start.after(end)) {
+            return new ArrayList<Period>(dates.values());
+        }
+        Calendar dateStart = Calendar.getInstance();
+        dateStart.setTimeInMillis(dtstart);
+        dateStart.set(Calendar.MILLISECOND, 0);
+
+        Calendar dateEnd = (Calendar) dateStart.clone();
+        if (dtend > 0) {
+            dateEnd = Calendar.getInstance();
+            dateEnd.setTimeInMillis(dtend);
+            dateEnd.set(Calendar.MILLISECOND, 0);
+
+            if (dateEnd.before(end) && rrule == null) {
+                end = (Calendar) dateEnd.clone();
+            }
+        } else if (due > 0) {
+            dateEnd = Calendar.getInstance();
+            dateEnd.setTimeInMillis(due);
+            dateEnd.set(Calendar.MILLISECOND, 0);
+
+            if (dateEnd.before(end) && rrule == null) {
+                end = (Calendar) dateEnd.clone();
+            }
+        }
+
+        if (dateStart.after(end)) {
+            return new ArrayList<Period>(dates.values());
+        }
+
+        if (rrule == null && (dateStart.after(start) || dateEnd.after(start))) {
+            Period _p = new Period((Calendar) dateStart.clone(), (Calendar) dateEnd.clone());
+            if (validatePeriod(_p, start, end, count)) {
+                dates.put((dateEnd.getTimeInMillis() + dateStart.getTimeInMillis()), _p);
+            }
+        }
+
+        if (rrule != null) {
+            Calendar offset = (Calendar) dateStart.clone();
+
+            if (rrule.hasUntil()) {
+                if (end.after(rrule.getUntil())) {
+                    end = (Calendar) rrule.getUntil().clone();
+                }
+            }
+
+            if (rrule.hasWeekStart()) {
+                if ("SU".equals(rrule.getWeekStart())) {
+                    start.setFirstDayOfWeek(Calendar.SUNDAY);
+                    end.setFirstDayOfWeek(Calendar.SUNDAY);
+                    offset.setFirstDayOfWeek(Calendar.SUNDAY);
+                } else if ("MO".equals(rrule.getWeekStart())) {
+                    start.setFirstDayOfWeek(Calendar.MONDAY);
+                    end.setFirstDayOfWeek(Calendar.MONDAY);
+                    offset.setFirstDayOfWeek(Calendar.MONDAY);
+                } else if ("TU".equals(rrule.getWeekStart())) {
+                    start.setFirstDayOfWeek(Calendar.TUESDAY);
+                    end.setFirstDayOfWeek(Calendar.TUESDAY);
+                    offset.setFirstDayOfWeek(Calendar.TUESDAY);
+                } else if ("WE".equals(rrule.getWeekStart())) {
+                    start.setFirstDayOfWeek(Calendar.WEDNESDAY);
+                    end.setFirstDayOfWeek(Calendar.WEDNESDAY);
+                    offset.setFirstDayOfWeek(Calendar.WEDNESDAY);
+                } else if ("TH".equals(rrule.getWeekStart())) {
+                    start.setFirstDayOfWeek(Calendar.THURSDAY);
+                    end.setFirstDayOfWeek(Calendar.THURSDAY);
+                    offset.setFirstDayOfWeek(Calendar.THURSDAY);
+                } else if ("FR".equals(rrule.getWeekStart())) {
+                    start.setFirstDayOfWeek(Calendar.FRIDAY);
+                    end.setFirstDayOfWeek(Calendar.FRIDAY);
+                    offset.setFirstDayOfWeek(Calendar.FRIDAY);
+                } else if ("SA".equals(rrule.getWeekStart())) {
+                    start.setFirstDayOfWeek(Calendar.SATURDAY);
+                    end.setFirstDayOfWeek(Calendar.SATURDAY);
+                    offset.setFirstDayOfWeek(Calendar.SATURDAY);
+                }
+            }
+
+            /*
+             * Every interval is walked from DTSTART, so the cost grows with the age of the event.
+             */
+            long index = 0;
+            for (;; index++) {
+                if (rrule.hasCount() && count[0] >= rrule.getCount()) {
+                    break;
+                }
+
+                final Calendar intervalStart = getIntervalStart(offset, index);
+                final Period p = new Period(intervalStart, getEnd(intervalStart));
+                final Period base = new Period((Calendar) intervalStart.clone(), getEnd(intervalStart));
+                if (rrule.hasByMonth()) {
+                    for (Period _p : getByMonthPeriods(p, start, end, count)) {
+                        long key = _p.getEnd().getTimeInMillis() + _p.getStart().getTimeInMillis();
+                        if (!dates.containsKey(key)) {
+                            dates.put(key, _p);
+                        }
+                    }
+                }
+
+                if (rrule.hasByWeekNo()) {
+                    for (Period _p : getByWeekNoPeriods(p, start, end, count)) {
+                        long key = _p.getEnd().getTimeInMillis() + _p.getStart().getTimeInMillis();
+                        if (!dates.containsKey(key)) {
+                            dates.put(key, _p);
+                        }
+                    }
+                }
+
+                if (rrule.hasByYearDay()) {
+                    for (Period _p : getByYearDayPeriods(p, start, end, count)) {
+                        long key = _p.getEnd().getTimeInMillis() + _p.getStart().getTimeInMillis();
+                        if (!dates.containsKey(key)) {
+                            dates.put(key, _p);
+                        }
+                    }
+                }
+
+                if (rrule.hasByMonthDay()) {
+                    for (Period _p : getByMonthDayPeriods(p, start, end, count)) {
+                        long key = _p.getEnd().getTimeInMillis() + _p.getStart().getTimeInMillis();
+                        if (!dates.containsKey(key)) {
+                            dates.put(key, _p);
+                        }
+                    }
+                }
+
+                if (rrule.hasByDay()) {
+                    for (Period _p : getByDayPeriods(p, start, end, count)) {
+                        long key = _p.getEnd().getTimeInMillis() + _p.getStart().getTimeInMillis();
+                        if (!dates.containsKey(key)) {
+                            dates.put(key, _p);
+                        }
+                    }
+                }
+
+                if (rrule.hasByHour()) {
+                    for (Period _p : getByHourPeriods(p, start, end, count)) {
+                        long key = _p.getEnd().getTimeInMillis() + _p.getStart().getTimeInMillis();
+                        if (!dates.containsKey(key)) {
+                            dates.put(key, _p);
+                        }
+                    }
+                }
+
+                if (rrule.hasByMinute()) {
+                    for (Period _p : getByMinutePeriods(p, start, end, count)) {
+                        long key = _p.getEnd().getTimeInMillis() + _p.getStart().getTimeInMillis();
+                        if (!dates.containsKey(key)) {
+                            dates.put(key, _p);
+                        }
+                    }
+                }
+
+                if (validatePeriod(base, start, end, count)) {
+                    long key = base.getEnd().getTimeInMillis() + base.getStart().getTimeInMillis();
+                    if (!dates.containsKey(key)) {
+                        dates.put(key, base);
+                    }
+                } else if (base.getEnd().after(end)) {
+                    break;
+                }
+            }
+        }
+
+        return new ArrayList<Period>(dates.values());
+    }
+
+    /**
+     * Applies BYDAY rules specified in RRULE.
+     * @param dates
+     * @return
+     */
+    private List<Period> getByDayPeriods(final Period p, final Calendar start, final Calendar end,
+            final int[] count) {
+        Map<Long, Period> periods = new HashMap<Long, Period>();
+        if (!rrule.hasByDay()) {
+            return new ArrayList<Period>(periods.values());
+        }
+
+        Calendar offset = p.getStart();
+        for (String dayName : rrule.getByDay()) {
+            if (!rrule.hasByYearDay() || !rrule.hasByMonthDay()) {
+                if ("SU".equals(dayName)) {
+                    offset.set(Calendar.DAY_OF_WEEK, Calendar.SUNDAY);
+                } else if ("MO".equals(dayName)) {
+                    offset.set(Calendar.DAY_OF_WEEK, Calendar.MONDAY);
+                } else if ("TU".equals(dayName)) {
+                    offset.set(Calendar.DAY_OF_WEEK, Calendar.TUESDAY);
+                } else if ("WE".equals(dayName)) {
+                    offset.set(Calendar.DAY_OF_WEEK, Calendar.WEDNESDAY);
+                } else if ("TH".equals(dayName)) {
+                    offset.set(Calendar.DAY_OF_WEEK, Calendar.THURSDAY);
+                } else if ("FR".equals(dayName)) {
+                    offset.set(Calendar.DAY_OF_WEEK, Calendar.FRIDAY);
+                } else if ("SA".equals(dayName)) {
+                    offset.set(Calendar.DAY_OF_WEEK, Calendar.SATURDAY);
+                }
+            } else {
+                // TODO: Not implemented
+            }
+
+            Period tempPeriod = new Period((Calendar) offset.clone(), getEnd(offset));
+            if (validatePeriod(tempPeriod, start, end, count)) {
+                long key = tempPeriod.getEnd().getTimeInMillis() + tempPeriod.getStart().getTimeInMillis();
+                if (!periods.containsKey(key)) {
+                    periods.put(key, tempPeriod);
+                }
+            }
+        }
+
+        return new ArrayList<Period>(periods.values());
+    }
+
+    /**
+     * Applies BYHOUR rules specified in RRULE.
+     * @param dates
+     * @return
+     */
+    private List<Period> getByHourPeriods(final Period p, final Calendar start, final Calendar end,
+            final int[] count) {
+        Map<Long, Period> periods = new HashMap<Long, Period>();
+        if (!rrule.hasByHour()) {
+            return new ArrayList<Period>(periods.values());
+        }
+
+        Calendar offset = p.getStart();
+        for (Integer hour : rrule.getByHour()) {
+            offset.set(Calendar.HOUR_OF_DAY, hour);
+            Period tempPeriod = new Period((Calendar) offset.clone(), getEnd(offset));
+            if (validatePeriod(tempPeriod, start, end, count)) {
+                long key = tempPeriod.getEnd().getTimeInMillis() + tempPeriod.getStart().getTimeInMillis();
+                if (!periods.containsKey(key)) {
+                    periods.put(key, tempPeriod);
+                }
+            }
+        }
+        return new ArrayList<Period>(periods.values());
+    }
+
+    /**
+     * Applies BYMINUTE rules specified in RRULE.
+     * @param dates
+     * @return
+     */
+    private List<Period> getByMinutePeriods(final Period p, final Calendar start, final Calendar end,
+            final int[] count) {
+        Map<Long, Period> periods = new HashMap<Long, Period>();
+        if (!rrule.hasByMinute()) {
+            return new ArrayList<Period>(periods.values());
+        }
+
+        Calendar offset = p.getStart();
+        for (Integer minute : rrule.getByMinute()) {
+            offset.set(Calendar.MINUTE, minute);
+            Period tempPeriod = new Period((Calendar) offset.clone(), getEnd(offset));
+            if (validatePeriod(tempPeriod, start, end, count)) {
+                long key = tempPeriod.getEnd().getTimeInMillis() + tempPeriod.getStart().getTimeInMillis();
+                if (!periods.containsKey(key)) {
+                    periods.put(key, tempPeriod);
+                }
+            }
+        }
+        return new ArrayList<Period>(periods.values());
+    }
+
+    /**
+     * Applies BYMONTHDAY rules specified in RRULE.
+     * @param dates
+     * @return
+     */
+    private List<Period> getByMonthDayPeriods(final Period p, final Calendar start, final Calendar end,
+            final int[] count) {
+        Map<Long, Period> periods = new HashMap<Long, Period>();
+        if (!rrule.hasByMonthDay()) {
+            return new ArrayList<Period>(periods.values());
+        }
+
+        Calendar offset = p.getStart();
+        for (Integer day : rrule.getByMonthDay()) {
+            offset.set(Calendar.DAY_OF_MONTH, day);
+            Period _p = new Period((Calendar) offset.clone(), getEnd(offset));
+            if (validatePeriod(_p, start, end, count)) {
+                long key = _p.getEnd().getTimeInMillis() + _p.getStart().getTimeInMillis();
+                if (!periods.containsKey(key)) {
+                    periods.put(key, _p);
+                }
+            }
+        }
+        return new ArrayList<Period>(periods.values());
+    }
+
+    /**
+     * Applies BYMONTH rules specified in RRULE.
+     * @param dates
+     * @return
+     */
+    private List<Period> getByMonthPeriods(final Period p, final Calendar start, final Calendar end,
+            final int[] count) {
+        Map<Long, Period> periods = new HashMap<Long, Period>();
+        if (!rrule.hasByMonth()) {
+            return new ArrayList<Period>(periods.values());
+        }
+
+        Calendar offset = p.getStart();
+        for (Integer month : rrule.getByMonth()) {
+            offset.roll(Calendar.MONTH, month);
+            Period _p = new Period((Calendar) offset.clone(), getEnd(offset));
+            if (validatePeriod(_p, start, end, count)) {
+                long key = _p.getEnd().getTimeInMillis() + _p.getStart().getTimeInMillis();
+                if (!periods.containsKey(key)) {
+                    periods.put(key, _p);
+                }
+            }
+        }
+        return new ArrayList<Period>(periods.values());
+    }
+
+    /**
+     * Applies BYWEEKNO rules specified in RRULE.
+     * @param dates
+     * @return
+     */
+    private List<Period> getByWeekNoPeriods(final Period p, final Calendar start, final Calendar end,
+            final int[] count) {
+        Map<Long, Period> periods = new HashMap<Long, Period>();
+        if (!rrule.hasByWeekNo()) {
+            return new ArrayList<Period>(periods.values());
+        }
+
+        Calendar offset = p.getStart();
+        for (Integer week : rrule.getByWeekNo()) {
+            offset.set(Calendar.WEEK_OF_YEAR, week);
+            Period _p = new Period((Calendar) offset.clone(), getEnd(offset));
+            if (validatePeriod(_p, start, end, count)) {
+                long key = _p.getEnd().getTimeInMillis() + _p.getStart().getTimeInMillis();
+                if (!periods.containsKey(key)) {
+                    periods.put(key, _p);
+                }
+            }
+        }
+        return new ArrayList<Period>(periods.values());
+    }
+
+    /**
+     * Applies BYYEARDAY rules specified in RRULE.
+     * @param dates
+     * @return
+     */
+    private List<Period> getByYearDayPeriods(final Period p, final Calendar start, final Calendar end,
+            final int[] count) {
+        Map<Long, Period> periods = new HashMap<Long, Period>();
+        if (!rrule.hasByYearDay()) {
+            return new ArrayList<Period>(periods.values());
+        }
+
+        Calendar offset = p.getStart();
+        for (Integer day : rrule.getByYearDay()) {
+            offset.set(Calendar.DAY_OF_YEAR, day);
+            Period _p = new Period((Calendar) offset.clone(), getEnd(offset));
+            if (validatePeriod(_p, start, end, count)) {
+                long key = _p.getEnd().getTimeInMillis() + _p.getStart().getTimeInMillis();
+                if (!periods.containsKey(key)) {
+                    periods.put(key, _p);
+                }
+            }
+        }
+        return new ArrayList<Period>(periods.values());
+    }
+
+    private Calendar getEnd(final Calendar date) {
+        long diff = 0;
+        Calendar endDate = Calendar.getInstance();
+        if (dtend > 0) {
+            diff = dtend - dtstart;
+        } else if (due > 0) {
+            diff = due - dtstart;
+        }
+        endDate.setTimeInMillis(date.getTimeInMillis() + diff);
+        return endDate;
+    }
+
+    /**
+     * Returns the <code>Calendar</code> field stepped by the RRULE frequency.
+     * @return
+     */
+    private int getFrequencyField() {
+        if ("MINUTELY".equals(rrule.getFrequency())) {
+            return Calendar.MINUTE;
+        } else if ("HOURLY".equals(rrule.getFrequency())) {
+            return Calendar.HOUR_OF_DAY;
+        } else if ("DAILY".equals(rrule.getFrequency())) {
+            return Calendar.DAY_OF_MONTH;
+        } else if ("WEEKLY".equals(rrule.getFrequency())) {
+            return Calendar.WEEK_OF_YEAR;
+        } else if ("MONTHLY".equals(rrule.getFrequency())) {
+            return Calendar.MONTH;
+        }
+        return Calendar.YEAR;
+    }
+
+    private int getFrequencyInterval() {
+        if (rrule.hasInterval()) {
+            return rrule.getInterval();
+        }
+        return 1;
+    }
+
+    /**
+     * Returns the start of the RRULE interval <code>index</code>, counted from <code>dateStart</code>.
+     * Every interval is computed from DTSTART, so month ends do not drift from one to the next.
+     * @param dateStart
+     * @param index
+     * @return
+     */
+    private Calendar getIntervalStart(final Calendar dateStart, final long index) {
+        Calendar offset = (Calendar) dateStart.clone();
+        if (index > 0) {
+            offset.add(getFrequencyField(), (int) (index * getFrequencyInterval()));
+        }
+        return offset;
+    }
+
+    /**
+     * Returns the instant before which the occurrences of an RRULE with UNTIL must start.
+     * @return
+     */
+    private long getUntilLimit() {
+        if (rrule == null || !rrule.hasUntil()) {
+            return Long.MAX_VALUE;
+        }
+        Calendar until = (Calendar) rrule.getUntil().clone();
+        until.set(Calendar.HOUR_OF_DAY, until.getMaximum(Calendar.HOUR_OF_DAY));
+        until.set(Calendar.MINUTE, until.getMaximum(Calendar.MINUTE));
+        until.set(Calendar.SECOND, until.getMaximum(Calendar.SECOND));
+        return until.getTimeInMillis();
+    }
+
+    private boolean isExdate(final Calendar date) {
+        return action.isExdate(VAction.getSecond(date.getTimeInMillis()));
+    }
+
+    private boolean validatePeriod(final Period p, final Calendar start, final Calendar end, final int[] count) {
+        if (p == null) {
+            return false;
+        }
+
+        if (rrule != null) {
+            if (rrule.hasCount()) {
+                if (count[0] >= rrule.getCount()) {
+                    return false;
+                }
+                count[0]++;
+            }
+
+            if (rrule.hasUntil()) {
+                if (getUntilLimit() < start.getTimeInMillis()) {
+                    return false;
+                }
+            }
+        }
+
+        if (p.getStart().getTimeInMillis() >= end.getTimeInMillis()) {
+            return false;
+        }
+
+        if (p.getEnd().getTimeInMillis() <= start.getTimeInMillis()) {
+            return false;
+        }
+
+        if (isExdate(p.getStart())) {
+            return false;
+        }
+
+        return true;
+    }
+}
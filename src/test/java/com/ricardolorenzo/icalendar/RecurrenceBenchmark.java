@@ -0,0 +1,109 @@
+/*
+ * RecurrenceBenchmark class
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ *
+ * Author: Ricardo Lorenzo <unshakablespirit@gmail.com>
+ */
+package com.ricardolorenzo.icalendar;
+
+import java.time.ZoneId;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the <code>Calendar</code> based expansion with <code>RecurrenceEngine</code> for one
+ * month of an event that started years before, and measures the cost of compiling a rule.
+ *
+ * Run with <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.ricardolorenzo.icalendar.RecurrenceBenchmark</code>.
+ *
+ * @author Ricardo_Lorenzo
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RecurrenceBenchmark {
+    @Param({ "FREQ=DAILY", "FREQ=WEEKLY;BYDAY=MO,WE,FR", "FREQ=MONTHLY;BYMONTHDAY=1,15", "FREQ=YEARLY;BYMONTH=3",
+            "FREQ=HOURLY;INTERVAL=4", "FREQ=DAILY;COUNT=5000" })
+    public String rule;
+
+    private VEvent event;
+    private Calendar start;
+    private Calendar end;
+    private ZoneId zone;
+
+    @Setup
+    public void setUp() throws VCalendarException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("BEGIN:VCALENDAR\n");
+        sb.append("BEGIN:VEVENT\n");
+        sb.append("UID:benchmark\n");
+        sb.append("DTSTART:20120315T090000\n");
+        sb.append("DTEND:20120315T100000\n");
+        sb.append("RRULE:" + rule + "\n");
+        sb.append("END:VEVENT\n");
+        sb.append("END:VCALENDAR\n");
+        event = new VCalendar(sb.toString()).getVevent("benchmark");
+
+        start = Calendar.getInstance();
+        start.clear();
+        start.set(2024, Calendar.MARCH, 1);
+        end = (Calendar) start.clone();
+        end.add(Calendar.MONTH, 1);
+        zone = ZoneId.systemDefault();
+    }
+
+    @Benchmark
+    public List<Period> legacy() {
+        return new LegacyExpansion(event).getPeriodsBetween((Calendar) start.clone(), (Calendar) end.clone());
+    }
+
+    @Benchmark
+    public List<Period> engine() {
+        return event.getPeriodsBetween(start, end);
+    }
+
+    @Benchmark
+    public OccurrenceSet occurrences() {
+        return event.getOccurrencesBetween(start.getTimeInMillis(), end.getTimeInMillis());
+    }
+
+    @Benchmark
+    public RecurrenceEngine compile() throws VCalendarException {
+        return new RecurrenceEngine(event.getRRule(), event.getDTStart().getTimeInMillis(), zone);
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(RecurrenceBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,1061 @@
+/*
+ * RecurrenceTest class
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Author: Ricardo Lorenzo <unshakablespirit@gmail.com>
+ */
+package com.ricardolorenzo.icalendar.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.ricardolorenzo.icalendar.AgendaCursor;
+import com.ricardolorenzo.icalendar.Availability;
+import com.ricardolorenzo.icalendar.BusyIntervals;
+import com.ricardolorenzo.icalendar.CalendarAggregate;
+import com.ricardolorenzo.icalendar.CalendarConflicts;
+import com.ricardolorenzo.icalendar.CalendarGrid;
+import com.ricardolorenzo.icalendar.CalendarOccurrences;
+import com.ricardolorenzo.icalendar.ComponentFilter;
+import com.ricardolorenzo.icalendar.ExpansionBudget;
+import com.ricardolorenzo.icalendar.OccurrenceCache;
+import com.ricardolorenzo.icalendar.OccurrenceHorizon;
+import com.ricardolorenzo.icalendar.OccurrenceSet;
+import com.ricardolorenzo.icalendar.Period;
+import com.ricardolorenzo.icalendar.RecurrenceCursor;
+import com.ricardolorenzo.icalendar.RecurrenceEngine;
+import com.ricardolorenzo.icalendar.SlotFinder;
+import com.ricardolorenzo.icalendar.VAlarm;
+import com.ricardolorenzo.icalendar.VCalendar;
+import com.ricardolorenzo.icalendar.VCalendarException;
+import com.ricardolorenzo.icalendar.VEvent;
+import com.ricardolorenzo.icalendar.VFreeBusy;
+
+/**
+ * @author Ricardo Lorenzo
+ * 
+ */
+public class RecurrenceTest {
+
+    private static Calendar getDate(final int year, final int month, final int day) {
+        Calendar date = Calendar.getInstance();
+        date.clear();
+        date.set(year, month - 1, day);
+        return date;
+    }
+
+    /**
+     * Returns a calendar with one VEVENT for every array of property lines.
+     */
+    private static VCalendar getCalendar(final String[]... events) throws VCalendarException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("BEGIN:VCALENDAR\n");
+        for (String[] event : events) {
+            sb.append("BEGIN:VEVENT\n");
+            for (String line : event) {
+                sb.append(line + "\n");
+            }
+            sb.append("END:VEVENT\n");
+        }
+        sb.append("END:VCALENDAR\n");
+        return new VCalendar(sb.toString());
+    }
+
+    /**
+     * Returns the property lines of an event on 2012-03-15 between two local times, followed by
+     * <code>properties</code>.
+     */
+    private static String[] getEventLines(final String uid, final String start, final String end,
+            final String... properties) {
+        List<String> lines = new ArrayList<String>();
+        lines.add("UID:" + uid);
+        lines.add("DTSTART:20120315T" + start);
+        lines.add("DTEND:20120315T" + end);
+        lines.addAll(Arrays.asList(properties));
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    /**
+     * Returns the property lines of one event for every pair of start and end times in
+     * <code>times</code>.
+     */
+    private static String[][] getTimedEvents(final String uid, final String[] times) {
+        String[][] events = new String[times.length / 2][];
+        for (int i = 0; i < times.length; i += 2) {
+            events[i / 2] = getEventLines(uid + "-" + i, times[i], times[i + 1]);
+        }
+        return events;
+    }
+
+    private static VEvent getEvent(final String rrule) throws VCalendarException {
+        return getCalendar(getEventLines("recurrence-test", "090000", "100000", "RRULE:" + rrule,
+                "EXDATE:20120320T090000")).getVevent("recurrence-test");
+    }
+
+    private static List<String> getLocalStarts(final String dtstart, final String rrule, final int max)
+            throws VCalendarException {
+        ZoneId zone = ZoneId.of("America/New_York");
+        long start = LocalDateTime.parse(dtstart).atZone(zone).toInstant().toEpochMilli();
+        RecurrenceEngine engine = new RecurrenceEngine(getEvent(rrule).getRRule(), start, zone);
+        List<String> starts = new ArrayList<String>();
+        for (RecurrenceCursor cursor = engine.getCursor(); cursor.hasNext() && starts.size() < max;) {
+            starts.add(LocalDateTime.ofInstant(Instant.ofEpochMilli(cursor.next()), zone).toString());
+        }
+        return starts;
+    }
+
+    private static List<Long> getStarts(final List<Period> periods) {
+        List<Long> starts = new ArrayList<Long>();
+        for (Period p : periods) {
+            starts.add(p.getStart().getTimeInMillis());
+        }
+        Collections.sort(starts);
+        return starts;
+    }
+
+    private static List<Long> getStarts(final Iterator<Period> periods) {
+        List<Long> starts = new ArrayList<Long>();
+        while (periods.hasNext()) {
+            starts.add(periods.next().getStart().getTimeInMillis());
+        }
+        return starts;
+    }
+
+    @Test
+    public void testSkipAhead() throws VCalendarException {
+        VEvent e = getEvent("FREQ=DAILY");
+        List<Period> periods = e.getPeriods(new Period(getDate(2026, 10, 1), getDate(2026, 11, 1)));
+        assertEquals(31, periods.size());
+        for (Period p : periods) {
+            assertEquals(9, p.getStart().get(Calendar.HOUR_OF_DAY));
+        }
+
+        /*
+         * The skipped intervals still count towards COUNT, so the rule ends on its 5000th day.
+         */
+        e = getEvent("FREQ=DAILY;COUNT=5000");
+        Calendar last = getDate(2012, 3, 15);
+        last.set(Calendar.HOUR_OF_DAY, 9);
+        last.add(Calendar.DAY_OF_MONTH, 4999);
+        periods = e.getPeriods(new Period(getDate(2025, 11, 1), getDate(2025, 12, 1)));
+        assertEquals(21, periods.size());
+        assertEquals(last.getTimeInMillis(), periods.get(20).getStart().getTimeInMillis());
+        assertTrue(e.getPeriods(new Period(getDate(2025, 11, 22), getDate(2026, 1, 1))).isEmpty());
+        assertNull(e.nextOccurrenceAfter(last.getTimeInMillis()));
+    }
+
+    @Test
+    public void testCount() throws VCalendarException {
+        VEvent e = getEvent("FREQ=DAILY;COUNT=20");
+        assertEquals(19, e.getPeriods(new Period(getDate(2012, 3, 1), getDate(2012, 5, 1))).size());
+        assertEquals(5, e.getPeriods(new Period(getDate(2012, 3, 30), getDate(2012, 5, 1))).size());
+        assertTrue(e.getPeriods(new Period(getDate(2026, 10, 1), getDate(2026, 11, 1))).isEmpty());
+    }
+
+    @Test
+    public void testUntil() throws VCalendarException {
+        Period window = new Period(getDate(2012, 3, 1), getDate(2012, 4, 1));
+        VEvent e = getCalendar(new String[] { "UID:until-test", "DTSTART:20120315T100000Z",
+                "DTEND:20120315T110000Z", "RRULE:FREQ=DAILY;UNTIL=20120317T000000Z" }).getVevent("until-test");
+        assertFalse(e.getRRule().isUntilDate());
+        assertEquals(2, e.getPeriods(window).size());
+        assertTrue(e.getRRule().toString().contains("UNTIL=20120317T000000Z"));
+
+        e = getEvent("FREQ=DAILY;UNTIL=20120317");
+        assertTrue(e.getRRule().isUntilDate());
+        assertEquals(3, e.getPeriods(window).size());
+        assertTrue(e.getRRule().toString().endsWith("UNTIL=20120317"));
+    }
+
+    @Test
+    public void testBeforeEpoch() throws VCalendarException {
+        Calendar start = getDate(1960, 1, 1);
+        start.set(Calendar.HOUR_OF_DAY, 9);
+        Calendar dtstart = (Calendar) start.clone();
+        dtstart.set(Calendar.MILLISECOND, 500);
+        Calendar dtend = (Calendar) dtstart.clone();
+        dtend.add(Calendar.HOUR_OF_DAY, 1);
+        VEvent e = getEvent("FREQ=DAILY;COUNT=3");
+        e.setDTStart(dtstart);
+        e.setDTEnd(dtend);
+        VCalendar calendar = new VCalendar();
+        calendar.addVevent(e);
+
+        /*
+         * Occurrences are rounded down to the second, so the first one starts before DTSTART.
+         */
+        Calendar end = (Calendar) start.clone();
+        end.add(Calendar.SECOND, 1);
+        Period first = new Period(getDate(1960, 1, 1), end);
+        assertEquals(1, e.getPeriods(first).size());
+        assertEquals(start.getTimeInMillis(), e.getPeriods(first).get(0).getStart().getTimeInMillis());
+        assertEquals(1, calendar.getOccurrences(first).size());
+        assertEquals(start.getTimeInMillis(), calendar.getOccurrences(first).getStart(0));
+
+        e.addExDate(dtstart);
+        assertTrue(e.getPeriods(first).isEmpty());
+        assertTrue(calendar.getOccurrences(first).isEmpty());
+    }
+
+    @Test
+    public void testIterator() throws VCalendarException {
+        String[] rules = new String[] { "FREQ=DAILY", "FREQ=WEEKLY;INTERVAL=2", "FREQ=MONTHLY;COUNT=10",
+                "FREQ=HOURLY;INTERVAL=5", "FREQ=WEEKLY;BYDAY=MO,WE", "FREQ=DAILY;BYHOUR=9,15",
+                "FREQ=DAILY;UNTIL=20120401T000000Z" };
+        for (String rule : rules) {
+            VEvent e = getEvent(rule);
+            List<Long> expected = getStarts(e.getPeriods(new Period(getDate(2012, 1, 1), getDate(2013, 1, 1))));
+            List<Long> starts = getStarts(e.getPeriodsIterator(new Period(getDate(2012, 1, 1), getDate(2013, 1, 1))));
+            assertEquals(rule, expected, starts);
+        }
+    }
+
+    @Test
+    public void testIteratorOpenEnded() throws VCalendarException {
+        Iterator<Period> periods = getEvent("FREQ=DAILY").getPeriodsIterator(getDate(2026, 10, 19));
+        assertEquals(getDate(2026, 10, 19).getTimeInMillis() + (9 * 3600000L), periods.next().getStart()
+                .getTimeInMillis());
+        assertTrue(periods.hasNext());
+
+        periods = getEvent("FREQ=DAILY;COUNT=3").getPeriodsIterator(getDate(2012, 1, 1));
+        assertEquals(3, getStarts(periods).size());
+        assertFalse(getEvent("FREQ=DAILY;COUNT=3").getPeriodsIterator(getDate(2013, 1, 1)).hasNext());
+    }
+
+    @Test
+    public void testOccurrences() throws VCalendarException {
+        String[] rules = new String[] { "FREQ=DAILY", "FREQ=MONTHLY;COUNT=10", "FREQ=WEEKLY;BYDAY=MO,WE" };
+        for (String rule : rules) {
+            VEvent e = getEvent(rule);
+            Period period = new Period(getDate(2012, 1, 1), getDate(2013, 1, 1));
+            List<Long> expected = getStarts(e.getPeriods(period));
+            OccurrenceSet occurrences = e.getOccurrences(period);
+            assertEquals(rule, expected.size(), occurrences.size());
+            for (int i = 0; i < occurrences.size(); i++) {
+                assertEquals(rule, expected.get(i).longValue(), occurrences.getStart(i));
+            }
+        }
+    }
+
+    @Test
+    public void testOccurrenceSet() {
+        OccurrenceSet set = new OccurrenceSet(2);
+        set.add(300, 400);
+        set.add(100, 200);
+        set.add(500, 600);
+        set.add(100, 200);
+        assertArrayEquals(new long[] { 100, 300, 500 }, set.getStarts());
+        assertEquals(1, set.indexOf(300));
+        assertEquals(-1, set.indexOf(350));
+        assertTrue(set.contains(350));
+        assertFalse(set.contains(450));
+        assertArrayEquals(new long[] { 300, 500 }, set.slice(350, 550).getStarts());
+
+        OccurrenceSet other = new OccurrenceSet();
+        other.add(0, 1000);
+        other.add(300, 400);
+        OccurrenceSet merged = set.merge(other);
+        assertArrayEquals(new long[] { 0, 100, 300, 500 }, merged.getStarts());
+        assertTrue(merged.contains(450));
+        assertArrayEquals(new long[] { 0, 500 }, merged.slice(450, 550).getStarts());
+    }
+
+    @Test
+    public void testRules() throws VCalendarException {
+        assertEquals(Arrays.asList("1997-09-05T09:00", "1997-10-03T09:00", "1997-11-07T09:00"),
+                getLocalStarts("1997-09-05T09:00", "FREQ=MONTHLY;COUNT=3;BYDAY=1FR", 10));
+        assertEquals(Arrays.asList("1997-09-22T09:00", "1997-10-20T09:00", "1997-11-17T09:00"),
+                getLocalStarts("1997-09-22T09:00", "FREQ=MONTHLY;COUNT=3;BYDAY=-2MO", 10));
+        assertEquals(Arrays.asList("1997-09-28T09:00", "1997-10-29T09:00", "1997-11-28T09:00"),
+                getLocalStarts("1997-09-28T09:00", "FREQ=MONTHLY;BYMONTHDAY=-3", 3));
+        assertEquals(Arrays.asList("1997-05-12T09:00", "1998-05-11T09:00", "1999-05-17T09:00"),
+                getLocalStarts("1997-05-12T09:00", "FREQ=YEARLY;BYWEEKNO=20;BYDAY=MO", 3));
+        assertEquals(Arrays.asList("1997-08-05T09:00", "1997-08-17T09:00", "1997-08-19T09:00",
+                "1997-08-31T09:00"), getLocalStarts("1997-08-05T09:00",
+                "FREQ=WEEKLY;INTERVAL=2;COUNT=4;BYDAY=TU,SU;WKST=SU", 10));
+        assertEquals(Arrays.asList("2007-01-31T09:00", "2007-03-31T09:00", "2007-05-31T09:00"),
+                getLocalStarts("2007-01-31T09:00", "FREQ=MONTHLY;COUNT=3", 10));
+        assertEquals(Arrays.asList("1997-09-02T09:00", "1997-09-02T09:20", "1997-09-02T09:40"),
+                getLocalStarts("1997-09-02T09:00", "FREQ=MINUTELY;INTERVAL=20;BYHOUR=9,10", 3));
+        assertEquals(1, getLocalStarts("1997-09-02T09:00", "FREQ=DAILY;BYMONTH=2;BYMONTHDAY=30", 3).size());
+    }
+
+    @Test
+    public void testDaylightSaving() throws VCalendarException {
+        assertEquals(Arrays.asList("2026-03-07T02:30", "2026-03-08T03:30", "2026-03-09T02:30"),
+                getLocalStarts("2026-03-07T02:30", "FREQ=DAILY", 3));
+        assertEquals(Arrays.asList("2026-10-31T09:00", "2026-11-01T09:00", "2026-11-02T09:00"),
+                getLocalStarts("2026-10-31T09:00", "FREQ=DAILY", 3));
+    }
+
+    @Test
+    public void testConcurrentExpansion() throws Exception {
+        final VEvent e = getEvent("FREQ=WEEKLY;BYDAY=MO,TH;COUNT=200");
+        final List<Period> windows = new ArrayList<Period>();
+        final List<List<Long>> expected = new ArrayList<List<Long>>();
+        for (int month = 1; month <= 12; month++) {
+            Period window = new Period(getDate(2012, month, 1), getDate(2013, month, 1));
+            windows.add(window);
+            expected.add(getStarts(e.getPeriods(window)));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 400; i++) {
+                final int index = i % windows.size();
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        Period window = windows.get(index);
+                        return expected.get(index).equals(getStarts(e.getPeriods(window)))
+                                && expected.get(index).equals(getStarts(e.getPeriodsIterator(window)));
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testOccurrenceCache() throws VCalendarException {
+        VEvent e = getEvent("FREQ=DAILY");
+        e.setOccurrenceCacheSize(2);
+        OccurrenceCache cache = e.getOccurrenceCache();
+        Period march = new Period(getDate(2026, 3, 1), getDate(2026, 4, 1));
+        assertEquals(31, e.getPeriods(march).size());
+        assertEquals(31, e.getOccurrences(march).size());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        Calendar exdate = getDate(2026, 3, 10);
+        exdate.set(Calendar.HOUR_OF_DAY, 9);
+        e.addExDate(exdate);
+        assertEquals(0, cache.size());
+        assertEquals(30, e.getPeriods(march).size());
+
+        e.getPeriods(new Period(getDate(2026, 4, 1), getDate(2026, 5, 1)));
+        e.getPeriods(new Period(getDate(2026, 5, 1), getDate(2026, 6, 1)));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+
+        VEvent expected = getEvent("FREQ=DAILY;INTERVAL=2");
+        expected.addExDate(exdate);
+        e.getRRule().setInterval(2);
+        assertEquals(getStarts(expected.getPeriods(march)), getStarts(e.getPeriods(march)));
+        assertEquals(1, cache.size());
+
+        /*
+         * The occurrences cached in the old default time zone are dropped when it changes.
+         */
+        TimeZone zone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+        try {
+            assertEquals(getStarts(expected.getPeriods(march)), getStarts(e.getPeriods(march)));
+            assertEquals(getStarts(e.getPeriodsIterator(march)), getStarts(e.getPeriods(march)));
+        } finally {
+            TimeZone.setDefault(zone);
+        }
+    }
+
+    @Test
+    public void testOccurrenceHorizon() throws VCalendarException {
+        final long day = 24 * 3600000L;
+        VEvent expected = getEvent("FREQ=DAILY;BYDAY=MO,TU,WE,TH,FR");
+        VEvent e = getEvent("FREQ=DAILY;BYDAY=MO,TU,WE,TH,FR");
+        e.setOccurrenceHorizon(30 * day);
+        OccurrenceHorizon horizon = e.getOccurrenceHorizon();
+        assertTrue(horizon.size() >= 20);
+
+        for (int days : new int[] { 0, 7, 45, 3650 }) {
+            Calendar start = Calendar.getInstance();
+            start.add(Calendar.DAY_OF_MONTH, days);
+            Calendar end = (Calendar) start.clone();
+            end.add(Calendar.DAY_OF_MONTH, 7);
+            Period window = new Period(start, end);
+            assertEquals(getStarts(expected.getPeriods(window)), getStarts(e.getPeriods(window)));
+        }
+
+        horizon.advance(horizon.getStart() + (10 * day));
+        assertTrue(horizon.getEnd() >= horizon.getStart() + (30 * day));
+        Calendar start = Calendar.getInstance();
+        start.setTimeInMillis(horizon.getStart());
+        Calendar end = (Calendar) start.clone();
+        end.add(Calendar.DAY_OF_MONTH, 20);
+        Period window = new Period(start, end);
+        assertEquals(getStarts(expected.getPeriods(window)), getStarts(e.getPeriods(window)));
+
+        expected.getRRule().setInterval(2);
+        e.getRRule().setInterval(2);
+        assertEquals(getStarts(expected.getPeriods(window)), getStarts(e.getPeriods(window)));
+    }
+
+    @Test
+    public void testExDates() throws VCalendarException {
+        VEvent e = getCalendar(getEventLines("exdate-test", "090000", "100000", "RRULE:FREQ=DAILY",
+                "EXDATE:20120322T090000,20120318T090000", "EXDATE:20120320T090000")).getVevent("exdate-test");
+        List<Calendar> exdates = e.getExDates();
+        assertEquals(3, exdates.size());
+        assertEquals(18, exdates.get(0).get(Calendar.DAY_OF_MONTH));
+        assertEquals(22, exdates.get(2).get(Calendar.DAY_OF_MONTH));
+        assertEquals(14, e.getPeriods(new Period(getDate(2012, 3, 15), getDate(2012, 4, 1))).size());
+
+        Calendar exdate = getDate(2012, 3, 25);
+        exdate.set(Calendar.HOUR_OF_DAY, 9);
+        e.addExDate(exdate);
+        e.addExDate(exdate);
+        assertEquals(4, e.getExDates().size());
+        assertEquals(13, e.getPeriods(new Period(getDate(2012, 3, 15), getDate(2012, 4, 1))).size());
+
+        exdates = e.getExDates();
+        exdates.remove(0);
+        exdate.add(Calendar.DAY_OF_MONTH, 1);
+        assertTrue(exdates.add(exdate));
+        assertFalse(exdates.add(exdate));
+        assertEquals(26, e.getExDates().get(3).get(Calendar.DAY_OF_MONTH));
+        assertEquals(13, e.getPeriods(new Period(getDate(2012, 3, 15), getDate(2012, 4, 1))).size());
+        exdates.clear();
+        assertEquals(17, e.getPeriods(new Period(getDate(2012, 3, 15), getDate(2012, 4, 1))).size());
+    }
+
+    @Test
+    public void testNextOccurrence() throws VCalendarException {
+        VEvent e = getEvent("FREQ=DAILY");
+        Calendar date = getDate(2012, 3, 19);
+        date.set(Calendar.HOUR_OF_DAY, 9);
+        long day = 24 * 60 * 60 * 1000L;
+        long instant = date.getTimeInMillis();
+
+        assertEquals(Long.valueOf(instant + (2 * day)), e.nextOccurrenceAfter(instant));
+        assertEquals(Long.valueOf(instant - day), e.previousOccurrenceBefore(instant));
+        assertEquals(Long.valueOf(instant), e.previousOccurrenceBefore(instant + (2 * day)));
+        assertTrue(e.isOccurringAt(instant + 30 * 60 * 1000L));
+        assertFalse(e.isOccurringAt(instant + 60 * 60 * 1000L));
+        assertFalse(e.isOccurringAt(instant + day));
+        assertNull(e.previousOccurrenceBefore(getDate(2012, 3, 15).getTimeInMillis()));
+
+        e = getEvent("FREQ=MONTHLY;BYDAY=-1FR;COUNT=3");
+        /*
+         * DTSTART counts as the first of the three occurrences.
+         */
+        Calendar last = getDate(2012, 4, 27);
+        last.set(Calendar.HOUR_OF_DAY, 9);
+        long later = getDate(2020, 1, 1).getTimeInMillis();
+        assertEquals(Long.valueOf(last.getTimeInMillis()), e.previousOccurrenceBefore(later));
+        assertNull(e.nextOccurrenceAfter(last.getTimeInMillis()));
+    }
+
+    @Test
+    public void testOverrides() throws Exception {
+        VCalendar calendar = getCalendar(getEventLines("override-test", "090000", "100000", "RRULE:FREQ=DAILY"),
+                new String[] { "UID:override-test", "RECURRENCE-ID:20120317T090000", "SUMMARY:Moved",
+                        "DTSTART:20120317T140000", "DTEND:20120317T160000" },
+                new String[] { "UID:override-test", "RECURRENCE-ID:20120318T090000", "DTSTART:20120318T090000",
+                        "STATUS:CANCELLED" });
+        VEvent e = calendar.getVevent("override-test");
+        assertEquals(2, e.getOverrides().size());
+        assertEquals(1, calendar.getVevents().size());
+
+        Calendar moved = getDate(2012, 3, 17);
+        moved.set(Calendar.HOUR_OF_DAY, 14);
+        Calendar original = getDate(2012, 3, 17);
+        original.set(Calendar.HOUR_OF_DAY, 9);
+        assertEquals(moved.getTimeInMillis(), ((VEvent) e.getOverride(original)).getDTStart().getTimeInMillis());
+
+        List<Period> periods = e.getPeriods(new Period(getDate(2012, 3, 15), getDate(2012, 3, 20)));
+        assertEquals(4, periods.size());
+        assertEquals(moved.getTimeInMillis(), periods.get(2).getStart().getTimeInMillis());
+        assertEquals(2 * 60 * 60 * 1000L, periods.get(2).getEnd().getTimeInMillis() - moved.getTimeInMillis());
+        assertEquals(getStarts(periods),
+                getStarts(e.getPeriodsIterator(new Period(getDate(2012, 3, 15), getDate(2012, 3, 20)))));
+        assertTrue(e.isOccurringAt(moved.getTimeInMillis() + 60 * 60 * 1000L));
+        assertFalse(e.isOccurringAt(original.getTimeInMillis()));
+        assertEquals(Long.valueOf(moved.getTimeInMillis()), e.nextOccurrenceAfter(original.getTimeInMillis() - 1));
+
+        List<VEvent> views = calendar.getRecurrentVevents(new Period(getDate(2012, 3, 15), getDate(2012, 3, 20)));
+        assertEquals(4, views.size());
+        assertEquals("Moved", views.get(2).getSummary());
+        assertEquals(original.getTimeInMillis(), views.get(2).getRecurrenceId().getTimeInMillis());
+        assertEquals(moved.getTimeInMillis(), views.get(2).getDTStart().getTimeInMillis());
+        assertNull(views.get(0).getRRule());
+
+        VEvent copy = new VCalendar(calendar.toString()).getVevent("override-test");
+        assertEquals(2, copy.getOverrides().size());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream output = new ObjectOutputStream(bytes);
+        output.writeObject(e);
+        output.close();
+        copy = (VEvent) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertEquals(getStarts(periods), getStarts(copy.getPeriods(new Period(getDate(2012, 3, 15),
+                getDate(2012, 3, 20)))));
+        copy.getExDates().add(original);
+        assertEquals(1, copy.getExDates().size());
+
+        calendar = getCalendar(new String[] { "UID:orphan-test", "RECURRENCE-ID:20120317T090000",
+                "DTSTART:20120317T140000", "DTEND:20120317T150000" }, new String[] { "UID:orphan-test",
+                "RECURRENCE-ID:20120318T090000", "DTSTART:20120318T140000", "DTEND:20120318T150000" });
+        assertEquals(1, calendar.getVevents().size());
+        assertFalse(calendar.getVevent("orphan-test").hasOverrides());
+        assertEquals(1, calendar.getDetachedVevents().size());
+        assertEquals(1, new VCalendar(calendar.toString()).getDetachedVevents().size());
+
+        e.removeOverride(original);
+        assertEquals(1, e.getOverrides().size());
+        assertEquals(original.getTimeInMillis(), e.getPeriods(new Period(getDate(2012, 3, 15), getDate(2012, 3, 20)))
+                .get(2).getStart().getTimeInMillis());
+    }
+
+    @Test
+    public void testOverrideCollision() throws VCalendarException {
+        VCalendar calendar = getCalendar(
+                getEventLines("collision-test", "090000", "100000", "RRULE:FREQ=DAILY;COUNT=4", "SUMMARY:Daily"),
+                new String[] { "UID:collision-test", "RECURRENCE-ID:20120316T090000", "SUMMARY:Moved",
+                        "STATUS:TENTATIVE", "DTSTART:20120317T090000", "DTEND:20120317T100000" });
+        Period day = new Period(getDate(2012, 3, 17), getDate(2012, 3, 18));
+
+        List<VEvent> views = calendar.getRecurrentVevents(day);
+        assertEquals(2, views.size());
+        Set<String> summaries = new HashSet<String>();
+        for (VEvent view : views) {
+            summaries.add(view.getSummary());
+        }
+        assertEquals(new HashSet<String>(Arrays.asList("Daily", "Moved")), summaries);
+
+        BusyIntervals busy = calendar.getBusyIntervals(day);
+        assertEquals(1, busy.size());
+        assertEquals(VFreeBusy.BUSY, busy.getType(0));
+
+        /*
+         * The instance moved onto the third occurrence does not hide it.
+         */
+        VEvent e = calendar.getVevent("collision-test");
+        Period week = new Period(getDate(2012, 3, 15), getDate(2012, 3, 22));
+        assertEquals(4, e.getPeriods(week).size());
+        assertEquals(getStarts(e.getPeriods(week)), getStarts(e.getPeriodsIterator(week)));
+        assertEquals(4, calendar.getOccurrences(week).size());
+    }
+
+    @Test
+    public void testOccurrenceViews() throws VCalendarException {
+        VCalendar calendar = getCalendar(getEventLines("view-test", "090000", "100000", "RRULE:FREQ=DAILY",
+                "CATEGORIES:WORK"));
+        VEvent master = calendar.getVevent("view-test");
+        master.addAlarm(new VAlarm());
+        VEvent view = calendar.getRecurrentVevents(new Period(getDate(2012, 3, 16), getDate(2012, 3, 17))).get(0);
+        assertEquals(master.getCategories(), view.getCategories());
+
+        try {
+            view.addCategory("HOME");
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            view.addAlarm(new VAlarm());
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            view.getAlarms().clear();
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            view.addExtended("X-TEST:1");
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        assertEquals(Arrays.asList("WORK"), master.getCategories());
+        assertEquals(1, master.getAlarms().size());
+    }
+
+    @Test
+    public void testCalendarOccurrences() throws VCalendarException {
+        String[] rules = new String[] { "FREQ=DAILY", "FREQ=WEEKLY;BYDAY=MO,WE,FR", "FREQ=HOURLY;INTERVAL=5",
+                "FREQ=MONTHLY;BYMONTHDAY=1,15" };
+        VCalendar calendar = new VCalendar();
+        for (int i = 0; i < 40; i++) {
+            VEvent e = getEvent(rules[i % rules.length]);
+            e.setUid("event-" + i);
+            Calendar start = e.getDTStart();
+            start.add(Calendar.MINUTE, i * 7);
+            e.setDTStart(start);
+            Calendar end = (Calendar) start.clone();
+            end.add(Calendar.MINUTE, 30 + i);
+            e.setDTEnd(end);
+            calendar.addVevent(e);
+        }
+        Period period = new Period(getDate(2012, 4, 1), getDate(2012, 5, 1));
+
+        List<Long> expected = new ArrayList<Long>();
+        for (VEvent e : calendar.getVevents()) {
+            expected.addAll(getStarts(e.getPeriods(period)));
+        }
+        Collections.sort(expected);
+
+        CalendarOccurrences occurrences = calendar.getOccurrences(period);
+        CalendarOccurrences parallel = calendar.getOccurrences(period, true);
+        assertEquals(expected.size(), occurrences.size());
+        assertEquals(expected.size(), parallel.size());
+        for (int i = 0; i < occurrences.size(); i++) {
+            assertEquals(expected.get(i).longValue(), occurrences.getStart(i));
+            assertEquals(occurrences.getStart(i), parallel.getStart(i));
+            assertEquals(occurrences.getEnd(i), parallel.getEnd(i));
+        }
+        assertEquals(40, occurrences.getComponents(VEvent.class).size());
+        assertEquals(expected.size(), calendar.getRecurrentVevents(period).size());
+    }
+
+    @Test
+    public void testExpansionBudget() throws VCalendarException {
+        VCalendar calendar = new VCalendar();
+        VEvent e = getEvent("FREQ=MINUTELY");
+        calendar.addVevent(e);
+        Period year = new Period(getDate(2013, 1, 1), getDate(2014, 1, 1));
+
+        calendar.setExpansionBudget(new ExpansionBudget(1000, 1000000));
+        CalendarOccurrences occurrences = calendar.getOccurrences(year);
+        assertEquals(1000, occurrences.size());
+        assertTrue(occurrences.isTruncated());
+        assertEquals(1, calendar.getVevents(year).size());
+        assertEquals(Long.valueOf(2), calendar.getTruncations().get(e.getUid()));
+
+        e.setExpansionBudget(new ExpansionBudget(Integer.MAX_VALUE, 100));
+        OccurrenceSet set = e.getOccurrences(year);
+        assertTrue(set.isTruncated());
+        assertTrue(set.size() <= 100);
+
+        /*
+         * The budget still applies when a horizon is set, instead of materializing it.
+         */
+        Calendar now = Calendar.getInstance();
+        Calendar tomorrow = (Calendar) now.clone();
+        tomorrow.add(Calendar.DAY_OF_MONTH, 1);
+        e.setOccurrenceHorizon(30 * 24 * 3600000L);
+        set = e.getOccurrences(new Period(now, tomorrow));
+        assertTrue(set.isTruncated());
+        assertTrue(set.size() <= 100);
+        e.setOccurrenceHorizon(0);
+
+        e.setExpansionBudget(null);
+        calendar.setExpansionBudget(null);
+        calendar.resetTruncations();
+        Period day = new Period(getDate(2013, 1, 1), getDate(2013, 1, 2));
+        assertFalse(calendar.getOccurrences(day).isTruncated());
+        assertEquals(e.getOccurrences(day).size(), calendar.getOccurrences(day).size());
+        assertTrue(calendar.getTruncations().isEmpty());
+    }
+
+    @Test
+    public void testTimeIndex() throws VCalendarException {
+        VCalendar calendar = new VCalendar();
+        VEvent e = getEvent("FREQ=WEEKLY;COUNT=3");
+        calendar.addVevent(e);
+        Period march = new Period(getDate(2012, 3, 1), getDate(2012, 4, 1));
+        Period june = new Period(getDate(2013, 6, 1), getDate(2013, 7, 1));
+        assertEquals(1, calendar.getVevents(march).size());
+        assertTrue(calendar.getVevents(june).isEmpty());
+
+        Calendar start = getDate(2013, 6, 10);
+        Calendar end = (Calendar) start.clone();
+        end.add(Calendar.HOUR_OF_DAY, 1);
+        e.setDTStart(start);
+        e.setDTEnd(end);
+        calendar.updateVevent(e);
+        assertTrue(calendar.getVevents(march).isEmpty());
+        assertEquals(1, calendar.getVevents(june).size());
+        assertEquals(3, calendar.getOccurrences(june).size());
+
+        calendar.removeVevent(e.getUid());
+        assertTrue(calendar.getVevents(june).isEmpty());
+    }
+
+    @Test
+    public void testPropertyIndex() throws VCalendarException {
+        String[][] events = new String[3][];
+        for (int i = 0; i < 3; i++) {
+            events[i] = new String[] { "UID:event-" + i, "DTSTART:2012031" + i + "T090000",
+                    "DTEND:2012031" + i + "T100000", "CATEGORIES:" + (i == 0 ? "Work" : "Work,Travel"),
+                    "STATUS:" + (i == 2 ? "CANCELLED" : "CONFIRMED"), "ORGANIZER;CN=Boss:mailto:boss@example.com",
+                    "ATTENDEE;PARTSTAT=ACCEPTED:mailto:user" + i + "@example.com" };
+        }
+        VCalendar calendar = getCalendar(events);
+
+        ComponentFilter filter = new ComponentFilter();
+        assertEquals(3, calendar.getVeventUids(filter).size());
+        filter.addCategory("travel");
+        filter.setStatus("confirmed");
+        assertEquals(new HashSet<String>(Arrays.asList("event-1")), calendar.getVeventUids(filter));
+        filter.addAttendee("mailto:user0@example.com");
+        assertTrue(calendar.getVeventUids(filter).isEmpty());
+
+        ComponentFilter organizer = new ComponentFilter();
+        organizer.addOrganizer("BOSS@example.com");
+        assertEquals(3, calendar.getVeventUids(organizer).size());
+
+        VEvent e = calendar.getVevent("event-2");
+        e.setStatus("CONFIRMED");
+        calendar.updateVevent(e);
+        filter = new ComponentFilter();
+        filter.addCategory("Travel");
+        filter.setStatus("CONFIRMED");
+        assertEquals(new HashSet<String>(Arrays.asList("event-1", "event-2")), calendar.getVeventUids(filter));
+        calendar.removeVevent("event-1");
+        assertEquals(new HashSet<String>(Arrays.asList("event-2")), calendar.getVeventUids(filter));
+    }
+
+    @Test
+    public void testSearch() throws VCalendarException {
+        VCalendar calendar = new VCalendar();
+        String[] summaries = { "Budget review", "Team lunch", "Quarterly planning" };
+        String[] descriptions = { "Review the budget for the launch", "Lunch at the Caf\u00e9", "Plan the budget" };
+        for (int i = 0; i < summaries.length; i++) {
+            VEvent e = new VEvent();
+            e.setUid("search-" + i);
+            e.setSummary(summaries[i]);
+            e.setDescription(descriptions[i]);
+            e.setLocation("Room " + i);
+            calendar.addVevent(e);
+        }
+
+        List<VEvent> budget = calendar.searchVevents("BUDGET", 10);
+        assertEquals(2, budget.size());
+        assertEquals("search-0", budget.get(0).getUid());
+        assertEquals(1, calendar.searchVevents("budget", 1).size());
+        assertEquals("search-1", calendar.searchVevents("cafe", 10).get(0).getUid());
+        assertEquals(2, calendar.searchVevents("budg*", 10).size());
+        assertEquals(1, calendar.searchVevents("plan* budget room 2", 10).size());
+        assertTrue(calendar.searchVevents("budget lunch", 10).isEmpty());
+
+        VEvent e = calendar.getVevent("search-1");
+        e.setSummary("Budget lunch");
+        calendar.updateVevent(e);
+        assertEquals(1, calendar.searchVevents("budget lunch", 10).size());
+        calendar.removeVevent("search-0");
+        assertEquals(2, calendar.searchVevents("budget", 10).size());
+        assertTrue(calendar.searchVevents("review", 10).isEmpty());
+    }
+
+    @Test
+    public void testCalendarGrid() throws VCalendarException {
+        VCalendar calendar = new VCalendar();
+        calendar.addVevent(getEvent("FREQ=DAILY;COUNT=3"));
+        VEvent trip = new VEvent();
+        trip.setUid("trip");
+        trip.setDTStart(getDate(2012, 3, 16));
+        trip.setDTEnd(getDate(2012, 3, 19));
+        calendar.addVevent(trip);
+
+        Calendar date = getDate(2012, 3, 1);
+        date.set(Calendar.HOUR_OF_DAY, 12);
+        CalendarGrid<VEvent> month = calendar.getVeventsGridForMonth(date);
+        assertEquals(12, date.get(Calendar.HOUR_OF_DAY));
+        assertEquals(31, month.size());
+        assertEquals(Arrays.asList("recurrence-test"), month.getUids(14));
+        assertEquals(Arrays.asList("trip", "recurrence-test"), month.getUids(15));
+        assertEquals(Arrays.asList("trip"), month.getUids(17));
+        assertEquals(0, month.getCount(18));
+        assertEquals(19, month.getKey(18));
+
+        Map<Integer, List<VEvent>> days = calendar.getVeventsMapForMonth(date);
+        assertEquals(4, days.size());
+        assertEquals(2, days.get(16).size());
+
+        Map<Integer, List<VEvent>> hours = calendar.getVeventsMapForDay(getDate(2012, 3, 17));
+        assertEquals(2, hours.get(9).size());
+        assertEquals(1, hours.get(0).size());
+    }
+
+    @Test
+    public void testGridTimeZone() throws VCalendarException {
+        TimeZone zone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+        try {
+            Calendar date = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+            date.clear();
+            date.set(2026, Calendar.OCTOBER, 1);
+            VEvent e = new VEvent();
+            e.setUid("utc-test");
+            Calendar start = (Calendar) date.clone();
+            start.set(Calendar.HOUR_OF_DAY, 2);
+            e.setDTStart(start);
+            Calendar end = (Calendar) start.clone();
+            end.add(Calendar.HOUR_OF_DAY, 1);
+            e.setDTEnd(end);
+            VCalendar calendar = new VCalendar();
+            calendar.addVevent(e);
+
+            /*
+             * The buckets are UTC days, which start on the evening of the day before in New York.
+             */
+            CalendarGrid<VEvent> month = calendar.getVeventsGridForMonth(date);
+            assertEquals(31, month.size());
+            assertEquals(1, month.getKey(0));
+            assertEquals(31, month.getKey(30));
+            assertEquals(Arrays.asList("utc-test"), month.getUids(0));
+
+            CalendarAggregate totals = calendar.getVeventsAggregateForMonth(date);
+            assertEquals(1, totals.getKey(0));
+            assertEquals(1, totals.getCount(0));
+            assertEquals(3600000L, totals.getBusyTime(0));
+        } finally {
+            TimeZone.setDefault(zone);
+        }
+    }
+
+    @Test
+    public void testAgenda() throws VCalendarException {
+        VCalendar calendar = new VCalendar();
+        for (int i = 0; i < 5; i++) {
+            VEvent e = getEvent(i % 2 == 0 ? "FREQ=DAILY" : "FREQ=WEEKLY;BYDAY=MO,WE");
+            e.setUid("agenda-" + i);
+            calendar.addVevent(e);
+        }
+        Period period = new Period(getDate(2012, 6, 1), getDate(2012, 8, 1));
+        CalendarOccurrences expected = calendar.getOccurrences(period);
+
+        int pages = 0;
+        AgendaCursor cursor = calendar.getAgenda(period.getStart().getTimeInMillis());
+        String token = cursor.getToken();
+        int index = 0;
+        while (index < expected.size()) {
+            /*
+             * Every other page is read from a new cursor resumed from the token.
+             */
+            if (pages++ % 2 == 1) {
+                cursor = calendar.getAgenda(token);
+            }
+            CalendarOccurrences page = cursor.next(7);
+            for (int i = 0; i < page.size() && index < expected.size(); i++, index++) {
+                assertEquals(expected.getStart(index), page.getStart(i));
+                if (i > 0 && page.getStart(i) == page.getStart(i - 1)) {
+                    assertTrue(page.getComponent(i - 1).getUid().compareTo(page.getComponent(i).getUid()) < 0);
+                }
+            }
+            token = cursor.getToken();
+        }
+        assertTrue(cursor.hasNext());
+    }
+
+    @Test
+    public void testNextOccurrences() throws VCalendarException {
+        VCalendar calendar = new VCalendar();
+        String[] rules = { "FREQ=DAILY;INTERVAL=3", "FREQ=WEEKLY;BYDAY=TU", "FREQ=MONTHLY;COUNT=2", "FREQ=YEARLY" };
+        for (int i = 0; i < rules.length; i++) {
+            VEvent e = getEvent(rules[i]);
+            e.setUid("next-" + i);
+            calendar.addVevent(e);
+        }
+        long after = getDate(2013, 1, 1).getTimeInMillis() + 9 * 3600000L;
+        CalendarOccurrences occurrences = calendar.getOccurrences(new Period(getDate(2013, 1, 1), getDate(2013, 3, 1)));
+        List<Long> expected = new ArrayList<Long>();
+        for (int i = 0; i < occurrences.size() && expected.size() < 5; i++) {
+            if (occurrences.getStart(i) > after) {
+                expected.add(occurrences.getStart(i));
+            }
+        }
+
+        CalendarOccurrences next = calendar.nextOccurrences(after, 5);
+        assertEquals(5, next.size());
+        for (int i = 0; i < next.size(); i++) {
+            assertEquals(expected.get(i).longValue(), next.getStart(i));
+        }
+    }
+
+    @Test
+    public void testFreeBusy() throws VCalendarException {
+        VCalendar calendar = getCalendar(getEventLines("a", "090000", "100000"),
+                getEventLines("b", "093000", "110000"), getEventLines("c", "110000", "113000"),
+                getEventLines("d", "103000", "130000", "STATUS:TENTATIVE"),
+                getEventLines("e", "140000", "150000", "STATUS:CANCELLED"),
+                getEventLines("f", "150000", "160000", "TRANSP:TRANSPARENT"));
+        Period day = new Period(getDate(2012, 3, 15), getDate(2012, 3, 16));
+        long midnight = getDate(2012, 3, 15).getTimeInMillis();
+        long hour = 3600000L;
+
+        BusyIntervals busy = calendar.getBusyIntervals(day);
+        assertEquals(2, busy.size());
+        assertEquals(midnight + 9 * hour, busy.getStart(0));
+        assertEquals(midnight + 11 * hour + hour / 2, busy.getEnd(0));
+        assertEquals(VFreeBusy.BUSY, busy.getType(0));
+        assertEquals(midnight + 11 * hour + hour / 2, busy.getStart(1));
+        assertEquals(midnight + 13 * hour, busy.getEnd(1));
+        assertEquals(VFreeBusy.BUSY_TENTATIVE, busy.getType(1));
+
+        VFreeBusy freeBusy = calendar.getVFreeBusy(day);
+        assertEquals(1, freeBusy.getFreeBusy(VFreeBusy.BUSY).size());
+        assertEquals(1, freeBusy.getFreeBusy(VFreeBusy.BUSY_TENTATIVE).size());
+        assertEquals(2, freeBusy.getFreeBusy().size());
+        assertTrue(freeBusy.toString().contains("FREEBUSY;FBTYPE=BUSY-TENTATIVE:"));
+    }
+
+    @Test
+    public void testAvailability() throws VCalendarException {
+        String[][] calendars = { { "090000", "100000", "140000", "150000" }, { "093000", "110000" },
+                { "110000", "120000" } };
+        List<VCalendar> values = new ArrayList<VCalendar>();
+        for (int c = 0; c < calendars.length; c++) {
+            values.add(getCalendar(getTimedEvents("availability-" + c, calendars[c])));
+        }
+        Availability availability = Availability.compute(values,
+                new Period(getDate(2012, 3, 15), getDate(2012, 3, 16)));
+        long midnight = getDate(2012, 3, 15).getTimeInMillis();
+        long hour = 3600000L;
+
+        assertEquals(3, availability.getCalendarCount());
+        assertEquals(2, availability.getBusy().size());
+        assertEquals(midnight + 9 * hour, availability.getBusy().getStart(0));
+        assertEquals(midnight + 12 * hour, availability.getBusy().getEnd(0));
+        assertArrayEquals(new int[] { 0, 1, 2 }, availability.getBusyCalendars(0));
+        assertArrayEquals(new int[] { 0 }, availability.getBusyCalendars(1));
+        assertEquals(2, availability.getBusy(0).size());
+
+        List<Period> free = availability.getFreePeriods();
+        assertEquals(3, free.size());
+        assertEquals(midnight + 12 * hour, free.get(1).getStart().getTimeInMillis());
+        assertEquals(midnight + 14 * hour, free.get(1).getEnd().getTimeInMillis());
+    }
+
+    @Test
+    public void testSlotFinder() throws VCalendarException {
+        String[][] calendars = { { "090000", "100000", "110000", "120000" },
+                { "093000", "103000", "140000", "170000" } };
+        List<VCalendar> values = new ArrayList<VCalendar>();
+        for (int c = 0; c < calendars.length; c++) {
+            values.add(getCalendar(getTimedEvents("slot-" + c, calendars[c])));
+        }
+        long hour = 3600000L;
+        SlotFinder finder = new SlotFinder(values);
+        finder.setWorkingHours(9 * 60, 17 * 60);
+        finder.setWorkingDays(Calendar.MONDAY, Calendar.TUESDAY, Calendar.WEDNESDAY, Calendar.THURSDAY,
+                Calendar.FRIDAY);
+
+        List<Period> slots = finder.find(new Period(getDate(2012, 3, 15), getDate(2012, 4, 15)), hour, 3);
+        assertEquals(3, slots.size());
+        long thursday = getDate(2012, 3, 15).getTimeInMillis();
+        assertEquals(thursday + 12 * hour, slots.get(0).getStart().getTimeInMillis());
+        assertEquals(thursday + 13 * hour, slots.get(1).getStart().getTimeInMillis());
+        assertEquals(getDate(2012, 3, 16).getTimeInMillis() + 9 * hour, slots.get(2).getStart().getTimeInMillis());
+        assertEquals(getDate(2012, 3, 16).getTimeInMillis() + 10 * hour, slots.get(2).getEnd().getTimeInMillis());
+
+        long[] starts = finder.findStarts(getDate(2012, 3, 16).getTimeInMillis() + 17 * hour,
+                getDate(2012, 4, 15).getTimeInMillis(), 2 * hour, 1);
+        assertArrayEquals(new long[] { getDate(2012, 3, 19).getTimeInMillis() + 9 * hour }, starts);
+        assertEquals(0, finder.findStarts(thursday + 12 * hour, thursday + 14 * hour, 3 * hour, 2).length);
+    }
+
+    @Test
+    public void testConflicts() throws VCalendarException {
+        VCalendar calendar = getCalendar(getEventLines("a", "090000", "100000", "RRULE:FREQ=DAILY;COUNT=3"),
+                getEventLines("b", "093000", "103000"), getEventLines("c", "100000", "110000"),
+                getEventLines("d", "090000", "093000", "STATUS:CANCELLED"),
+                getEventLines("e", "090000", "110000", "TRANSP:TRANSPARENT"));
+        Period window = new Period(getDate(2012, 3, 15), getDate(2012, 3, 20));
+
+        CalendarConflicts conflicts = calendar.findConflicts(window);
+        assertEquals(2, conflicts.size());
+        assertEquals("a", conflicts.getFirstUid(0));
+        assertEquals("b", conflicts.getSecondUid(0));
+        assertEquals(getDate(2012, 3, 15).getTimeInMillis() + 9 * 3600000L,
+                conflicts.getOccurrences().getStart(conflicts.getFirst(0)));
+        assertEquals("b", conflicts.getFirstUid(1));
+        assertEquals("c", conflicts.getSecondUid(1));
+
+        Set<String> pairs = new HashSet<String>();
+        conflicts = calendar.findConflicts(window, false, false);
+        for (int i = 0; i < conflicts.size(); i++) {
+            pairs.add(conflicts.getFirstUid(i) + conflicts.getSecondUid(i));
+        }
+        assertEquals(new HashSet<String>(Arrays.asList("da", "ae", "de", "ab", "eb", "bc", "ec")), pairs);
+
+        calendar = getCalendar(getEventLines("f", "090000", "120000", "RRULE:FREQ=HOURLY;COUNT=4"),
+                getEventLines("g", "113000", "120000"));
+        conflicts = calendar.findConflicts(window);
+        assertEquals(3, conflicts.size());
+        for (int i = 0; i < conflicts.size(); i++) {
+            assertEquals("f", conflicts.getFirstUid(i));
+            assertEquals("g", conflicts.getSecondUid(i));
+        }
+    }
+
+    @Test
+    public void testAggregate() throws VCalendarException {
+        VCalendar calendar = new VCalendar();
+        String[] rules = { "FREQ=DAILY;COUNT=4", "FREQ=WEEKLY;BYDAY=TH,FR" };
+        for (int i = 0; i < rules.length; i++) {
+            VEvent e = getEvent(rules[i]);
+            e.setUid("aggregate-" + i);
+            calendar.addVevent(e);
+        }
+        long hour = 3600000L;
+
+        CalendarAggregate month = calendar.getVeventsAggregateForMonth(getDate(2012, 3, 1));
+        CalendarGrid<VEvent> grid = calendar.getVeventsGridForMonth(getDate(2012, 3, 1));
+        assertEquals(31, month.size());
+        for (int b = 0; b < month.size(); b++) {
+            assertEquals(grid.getKey(b), month.getKey(b));
+            assertEquals(grid.getCount(b), month.getDistinctCount(b));
+        }
+        assertEquals(15, month.getKey(14));
+        assertEquals(2, month.getCount(14));
+        assertEquals(hour, month.getBusyTime(14));
+        assertEquals(2, month.getCount(15));
+        assertEquals(1, month.getCount(16));
+        assertEquals(0, month.getCount(19));
+
+        CalendarAggregate weeks = calendar.getVeventsAggregate(new Period(getDate(2012, 3, 12), getDate(2012, 4, 2)),
+                Calendar.WEEK_OF_YEAR);
+        assertEquals(3, weeks.size());
+        assertEquals(6, weeks.getCount(0));
+        assertEquals(4 * hour, weeks.getBusyTime(0));
+        assertEquals(2, weeks.getDistinctCount(0));
+        assertEquals(1, weeks.getDistinctCount(1));
+        assertEquals(2 * hour, weeks.getBusyTime(1));
+    }
+}